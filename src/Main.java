@@ -1,4 +1,6 @@
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
 import theory.Conditional;
 import theory.Theory;
@@ -6,9 +8,70 @@ import theory.Theory;
 public class Main {
 
 	Theory theory;
+	boolean verifyShift = false;
 	
 	public static void main(String arg[]) {
-		(new Main()).simpleTest();
+		if (arg.length > 0 && arg[0].equals("regression")) {
+			(new Main()).regression();
+		}
+		else {
+			(new Main()).simpleTest();
+		}
+	}
+	
+	private Theory newTheory() {
+		Theory t = new Theory();
+		t.VERIFY_SHIFT = verifyShift;
+		return t;
+	}
+	
+	/**
+	 * 
+	 *  Runs the scenarios while checking every shift of the ranking
+	 *  construction against the original step-by-step shifting
+	 *  
+	 */
+	public void regression() {
+		verifyShift = true;
+		
+		simpleTest();
+		ysp();
+		smm();
+		batchOrder();
+	}
+	
+	/**
+	 * 
+	 *  Adding conditionals in one batch must give the same ranking as adding
+	 *  them one by one: the shifts depend on the order of the conditionals
+	 *  
+	 */
+	public void batchOrder() {
+		String vars = "v0 v1 v2 v3 v4 v5 v6 v7";
+		String conds = "v0 => -v3, v4 => v7, v5 => v7, -v6 and -v4 and -v3 => -v2, -v6 => -v1, "
+				+ "-v6 => -v0, -v4 => -v0, v5 => -v3, -v3 => -v7, -v4 and -v1 => -v7, "
+				+ "v0 => -v7, v2 => v7, v6 and -v2 => v4";
+		String query = "v0 and v7 => -v3";
+		
+		try {
+			Theory single = newTheory();
+			single.addVars(vars);
+			single.addCond(conds);
+			
+			List<String> batch = new ArrayList<String>();
+			for (String cond : conds.split(",")) {
+				batch.add(cond);
+			}
+			Theory bulk = newTheory();
+			bulk.addVars(vars);
+			bulk.addConds(batch);
+			
+			System.out.println(query + ": " + single.query(query) + "\tbatch: " + bulk.query(query));
+			System.out.println("same ranking: " + single.rankingToString().equals(bulk.rankingToString()));
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 	}
 	
 	/**
@@ -19,7 +82,7 @@ public class Main {
 	public void simpleTest() {
 		
 		try {
-			theory = new Theory();
+			theory = newTheory();
 			
 			String vars = "load sound loaded shoot dead fly";
 			String conds = "load => sound, load => loaded, shoot and loaded => dead, sound => fly, fly => -dead";
@@ -53,7 +116,7 @@ public class Main {
 	 * 
 	 */
 	public void actionLanguage() {
-		theory = new Theory();
+		theory = newTheory();
 		
 		/**
 		 * SCENARIO SPECIFICATION
@@ -107,7 +170,7 @@ public class Main {
 	 * 
 	 */
 	public void ysp() {
-		theory = new Theory();
+		theory = newTheory();
 				
 		
 		/**
@@ -158,9 +221,17 @@ public class Main {
 			
 			//System.out.println(theory.rankingToString());
 			
+			List<String> queries = new ArrayList<String>();
 			for (String fluent : fluents.split(" ")) {
-				System.out.print(fluent + ": " + theory.query(initial + " and " + occ + "=>" + fluent));
-				System.out.println("\t-" + fluent + ": " + theory.query(initial + " and " + occ + "=>" + "-" + fluent));
+				queries.add(initial + " and " + occ + "=>" + fluent);
+				queries.add(initial + " and " + occ + "=>" + "-" + fluent);
+			}
+			List<Boolean> results = theory.queryAll(queries);
+			
+			int i = 0;
+			for (String fluent : fluents.split(" ")) {
+				System.out.print(fluent + ": " + results.get(i++));
+				System.out.println("\t-" + fluent + ": " + results.get(i++));
 			}
 			
 			
@@ -177,7 +248,7 @@ public class Main {
 	 * 
 	 */
 	public void smm() {
-		theory = new Theory();
+		theory = newTheory();
 				
 		//String conds = "l1 => l2, a1 => a2, " // persistence
 		//		+ "a1 and s1 and l1 => -a2," // actions
@@ -232,9 +303,17 @@ public class Main {
 			
 			String lhs = initial + " and " + occ + "=>";
 			
+			List<String> queries = new ArrayList<String>();
 			for (String fluent : fluents.split(" ")) {
-				boolean t = theory.query(lhs + fluent);
-				boolean f = theory.query(lhs + "-" + fluent);
+				queries.add(lhs + fluent);
+				queries.add(lhs + "-" + fluent);
+			}
+			List<Boolean> results = theory.queryAll(queries);
+			
+			int i = 0;
+			for (String fluent : fluents.split(" ")) {
+				boolean t = results.get(i++);
+				boolean f = results.get(i++);
 							
 				System.out.println(fluent + ": " + (t ? t : (f ? !f : "?")));
 			}
@@ -256,7 +335,7 @@ public class Main {
 	 * 
 	 */
 	public void smmram() {
-		theory = new Theory();
+		theory = newTheory();
 				
 		/**
 		 * SCENARIO:
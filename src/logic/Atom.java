@@ -2,9 +2,10 @@ package logic;
 
 public class Atom {
 	String var;
+	int id = VariableRegistry.UNDECLARED;
 	boolean negated;
 	
-	public Atom(String str) {
+	public Atom(String str, VariableRegistry registry) {
 		str = str.trim();
 		if (str.charAt(0) == '-') {
 			negated = true;
@@ -12,6 +13,9 @@ public class Atom {
 		}
 		
 		var = str;
+		if (!isBoolean()) {
+			id = registry.id(var);
+		}
 	}
 	
 	public Atom(boolean b) {
@@ -22,6 +26,17 @@ public class Atom {
 		return var;
 	}
 	
+	/**
+	 * The id of the variable, UNDECLARED for true, false and undeclared variables.
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	public boolean isNegated() {
+		return negated;
+	}
+	
 	public String toString() {
 		return (negated?"-":"")+var;
 	}
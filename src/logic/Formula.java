@@ -7,8 +7,10 @@ public class Formula {
 	// p and q and r and -s and ...
 	
 	HashSet<Atom> atoms;
+	VariableRegistry registry;
 	
-	public Formula(String str) {
+	public Formula(String str, VariableRegistry registry) {
+		this.registry = registry;
 		atoms = new HashSet<Atom>();
 		findAtoms(str);
 		if (atoms.size() == 0) {
@@ -29,7 +31,7 @@ public class Formula {
 		}
 		
 		if (!atom.equals("true")) {
-			atoms.add(new Atom(form[0].trim()));
+			atoms.add(new Atom(form[0].trim(), registry));
 		}
 		
 		if (form.length > 1) {
@@ -39,6 +41,10 @@ public class Formula {
 		}
 	}
 	
+	public HashSet<Atom> getAtoms() {
+		return atoms;
+	}
+	
 	public HashSet<String> getVars() {
 		HashSet<String> ret = new HashSet<String>();
 		
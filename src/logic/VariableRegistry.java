@@ -0,0 +1,55 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Interns variable names to dense int ids, in order of declaration.
+ *
+ * Names are only needed for parsing and display, everything else works on the ids.
+ */
+public class VariableRegistry {
+	public static final int UNDECLARED = -1;
+
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	private final ArrayList<String> names = new ArrayList<String>();
+
+	/**
+	 * The id of the variable, declaring it first if necessary.
+	 */
+	public int intern(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			ids.put(name, id);
+			names.add(name);
+		}
+		return id;
+	}
+
+	/**
+	 * The id of the variable, UNDECLARED if it was never declared.
+	 */
+	public int id(String name) {
+		Integer id = ids.get(name);
+		return (id == null ? UNDECLARED : id);
+	}
+
+	public String name(int id) {
+		return names.get(id);
+	}
+
+	public List<String> names() {
+		return Collections.unmodifiableList(names);
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	public String toString() {
+		return names.toString();
+	}
+}
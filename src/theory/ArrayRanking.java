@@ -0,0 +1,128 @@
+package theory;
+
+import java.util.Arrays;
+
+/**
+ * Ranking backed by a flat int array indexed by the world bitmask.
+ *
+ * When the lowest variables are free in a cube, its members come in contiguous runs of the array.
+ * The run kernels process such runs with plain counted loops over an array slice, which the JIT
+ * compiles to SIMD instructions. They are selected at startup unless the system property
+ * theory.kernels is set to "scalar", which keeps the member-by-member loops.
+ */
+public class ArrayRanking extends Ranking {
+	public static final int MAX_VARS = 30;
+	public static final boolean RUN_KERNELS = !"scalar".equals(System.getProperty("theory.kernels"));
+	// shorter runs are not worth the bookkeeping
+	static final int MIN_RUN = 8;
+
+	int[] ranks;
+
+	public ArrayRanking(int vars) {
+		if (vars > MAX_VARS) {
+			throw new IllegalArgumentException("too many variables for an array ranking: " + vars + " (max " + MAX_VARS + ")");
+		}
+		this.vars = vars;
+		this.ranks = new int[1 << vars];
+	}
+
+	public int get(long world) {
+		return ranks[(int) world];
+	}
+
+	public void set(long world, int rank) {
+		ranks[(int) world] = rank;
+	}
+
+	/**
+	 * The length of the contiguous runs of members of a cube with the given free bits.
+	 */
+	private int run(long free) {
+		return 1 << Long.numberOfTrailingZeros(~free);
+	}
+
+	protected int min(Cube c, long free, long from, long to) {
+		int run = run(free);
+		if (RUN_KERNELS && run >= MIN_RUN) {
+			return minRuns(c, free, from, to, run);
+		}
+
+		int min = INFINITY;
+		long s = Cube.deposit(from, free);
+		for (long i=from; i<to; i++) {
+			int r = ranks[(int) (c.value | s)];
+			if (r < min) {
+				min = r;
+			}
+			s = (s - free) & free;
+		}
+		return min;
+	}
+
+	protected void update(Cube c, long free, long from, long to, boolean fill, int n) {
+		int run = run(free);
+		if (RUN_KERNELS && run >= MIN_RUN) {
+			updateRuns(c, free, from, to, fill, n, run);
+			return;
+		}
+
+		long s = Cube.deposit(from, free);
+		for (long i=from; i<to; i++) {
+			int w = (int) (c.value | s);
+			ranks[w] = (fill ? n : plus(ranks[w], n));
+			s = (s - free) & free;
+		}
+	}
+
+	private int minRuns(Cube c, long free, long from, long to, int run) {
+		int min = INFINITY;
+		long s = Cube.deposit(from, free);
+		for (long i=from; i<to; ) {
+			int w = (int) (c.value | s);
+			int len = (int) Math.min(run - (i & (run - 1)), to - i);
+
+			for (int k=w; k<w+len; k++) {
+				min = Math.min(min, ranks[k]);
+			}
+
+			// continue with the first member of the next run
+			i += len;
+			s = ((s | (run - 1)) - free) & free;
+		}
+		return min;
+	}
+
+	private void updateRuns(Cube c, long free, long from, long to, boolean fill, int n, int run) {
+		long s = Cube.deposit(from, free);
+		for (long i=from; i<to; ) {
+			int w = (int) (c.value | s);
+			int len = (int) Math.min(run - (i & (run - 1)), to - i);
+
+			if (fill) {
+				Arrays.fill(ranks, w, w + len, n);
+			}
+			else {
+				for (int k=w; k<w+len; k++) {
+					ranks[k] = plus(ranks[k], n);
+				}
+			}
+
+			i += len;
+			s = ((s | (run - 1)) - free) & free;
+		}
+	}
+
+	public Ranking widen(int extra) {
+		ArrayRanking ret = new ArrayRanking(vars + extra);
+		for (int i=0; i<ret.ranks.length; i+=ranks.length) {
+			System.arraycopy(ranks, 0, ret.ranks, i, ranks.length);
+		}
+		return ret;
+	}
+
+	public Ranking copy() {
+		ArrayRanking ret = new ArrayRanking(vars);
+		System.arraycopy(ranks, 0, ret.ranks, 0, ranks.length);
+		return ret;
+	}
+}
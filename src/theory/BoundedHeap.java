@@ -0,0 +1,92 @@
+package theory;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the k smallest of a stream of (rank, row) pairs with distinct rows, in a max-heap
+ * of at most k entries.
+ *
+ * The heap grows as entries arrive, up to MAX_CAPACITY entries; offering more than that
+ * with a larger k fails instead of exhausting the memory.
+ */
+class BoundedHeap {
+	static final int MAX_CAPACITY = 1 << 22;
+
+	final long k;
+	int[] ranks;
+	long[] rows;
+	int count = 0;
+
+	BoundedHeap(long k) {
+		this.k = k;
+		int initial = (int) Math.min(k, 1024);
+		ranks = new int[initial];
+		rows = new long[initial];
+	}
+
+	private boolean less(int i, int rank, long row) {
+		return ranks[i] < rank || (ranks[i] == rank && rows[i] < row);
+	}
+
+	void offer(int rank, long row) {
+		if (count < k) {
+			if (count == ranks.length) {
+				grow();
+			}
+			// sift up
+			int i = count++;
+			for (; i > 0 && less((i - 1) >>> 1, rank, row); i = (i - 1) >>> 1) {
+				move((i - 1) >>> 1, i);
+			}
+			ranks[i] = rank;
+			rows[i] = row;
+		}
+		else if (count > 0 && !less(0, rank, row)) {
+			siftDown(rank, row, count);
+		}
+	}
+
+	/**
+	 * Replaces the largest entry and sifts it down within the first n entries.
+	 */
+	private void siftDown(int rank, long row, int n) {
+		int i = 0;
+		for (int child; (child = 2 * i + 1) < n; i = child) {
+			if (child + 1 < n && less(child, ranks[child + 1], rows[child + 1])) {
+				child++;
+			}
+			if (less(child, rank, row)) {
+				break;
+			}
+			move(child, i);
+		}
+		ranks[i] = rank;
+		rows[i] = row;
+	}
+
+	private void move(int from, int to) {
+		ranks[to] = ranks[from];
+		rows[to] = rows[from];
+	}
+
+	private void grow() {
+		if (ranks.length >= MAX_CAPACITY) {
+			throw new IllegalStateException("more than " + MAX_CAPACITY + " entries to sort");
+		}
+		int n = (int) Math.min(Math.min(k, MAX_CAPACITY), 2L * ranks.length);
+		ranks = Arrays.copyOf(ranks, n);
+		rows = Arrays.copyOf(rows, n);
+	}
+
+	/**
+	 * Sorts the kept entries in ascending order, in place; the heap must not be offered to afterwards.
+	 */
+	void sort() {
+		for (int n=count-1; n>0; n--) {
+			int rank = ranks[n];
+			long row = rows[n];
+			move(0, n);
+			siftDown(rank, row, n);
+		}
+	}
+}
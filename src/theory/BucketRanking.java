@@ -0,0 +1,139 @@
+package theory;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Array ranking with an index from each rank to the bitset of the worlds that have it.
+ *
+ * The minimal rank of a cube is the first rank, going upward, whose bucket intersects the cube.
+ * The intersection is taken word by word: the variables above bit 5 select the candidate words,
+ * the variables below it give a fixed pattern within each word. Queries against low ranks stop
+ * after one or two buckets. Every change of a rank moves one bit between buckets, so shifts and
+ * fills are maintained incrementally and always run sequentially.
+ */
+public class BucketRanking extends ArrayRanking {
+	private static class Bucket {
+		long[] bits;
+		long count = 0;
+	}
+
+	private final TreeMap<Integer, Bucket> buckets = new TreeMap<Integer, Bucket>();
+	private final int words;
+
+	public BucketRanking(int vars) {
+		super(vars);
+		words = (int) Math.max(1, size() >>> 6);
+
+		Bucket zero = bucket(0);
+		for (int i=0; i<words; i++) {
+			zero.bits[i] = (vars >= 6 ? -1L : (1L << size()) - 1);
+		}
+		zero.count = size();
+	}
+
+	/**
+	 * The ranks that occur in the ranking, with the number of worlds that have them.
+	 */
+	public TreeMap<Integer, Long> histogram() {
+		TreeMap<Integer, Long> ret = new TreeMap<Integer, Long>();
+		for (Map.Entry<Integer, Bucket> e : buckets.entrySet()) {
+			ret.put(e.getKey(), e.getValue().count);
+		}
+		return ret;
+	}
+
+	private Bucket bucket(int rank) {
+		Bucket b = buckets.get(rank);
+		if (b == null) {
+			b = new Bucket();
+			b.bits = new long[words];
+			buckets.put(rank, b);
+		}
+		return b;
+	}
+
+	private void move(int w, int from, int to) {
+		if (from == to) {
+			return;
+		}
+		Bucket b = buckets.get(from);
+		b.bits[w >>> 6] &= ~(1L << w);
+		if (--b.count == 0) {
+			buckets.remove(from);
+		}
+
+		b = bucket(to);
+		b.bits[w >>> 6] |= 1L << w;
+		b.count++;
+	}
+
+	public void set(long world, int rank) {
+		move((int) world, ranks[(int) world], rank);
+		super.set(world, rank);
+	}
+
+	public int min(Cube c, long threshold) {
+		if (c.isEmpty()) {
+			return INFINITY;
+		}
+
+		// the positions within a word that satisfy the variables below bit 6
+		long pattern = 0;
+		for (int p=0; p<64; p++) {
+			if ((p & c.care & 63) == (c.value & 63)) {
+				pattern |= 1L << p;
+			}
+		}
+		// the words that satisfy the variables from bit 6 up
+		long free = (words - 1) & ~(c.care >>> 6);
+		long fixed = c.value >>> 6;
+
+		for (Map.Entry<Integer, Bucket> e : buckets.entrySet()) {
+			long[] bits = e.getValue().bits;
+			long s = 0;
+			do {
+				if ((bits[(int) (fixed | s)] & pattern) != 0) {
+					return e.getKey();
+				}
+				s = (s - free) & free;
+			} while (s != 0);
+		}
+		return INFINITY;
+	}
+
+	protected void update(Cube c, long free, long from, long to, boolean fill, int n) {
+		long s = Cube.deposit(from, free);
+		for (long i=from; i<to; i++) {
+			int w = (int) (c.value | s);
+			int r = (fill ? n : plus(ranks[w], n));
+			move(w, ranks[w], r);
+			ranks[w] = r;
+			s = (s - free) & free;
+		}
+	}
+
+	public void shift(Cube c, int n, long threshold) {
+		super.shift(c, n, Long.MAX_VALUE);
+	}
+
+	public void fill(Cube c, int rank, long threshold) {
+		super.fill(c, rank, Long.MAX_VALUE);
+	}
+
+	public Ranking widen(int extra) {
+		return from((ArrayRanking) super.widen(extra));
+	}
+
+	public Ranking copy() {
+		return from((ArrayRanking) super.copy());
+	}
+
+	private static BucketRanking from(ArrayRanking r) {
+		BucketRanking ret = new BucketRanking(r.vars);
+		for (int w=0; w<r.ranks.length; w++) {
+			ret.set(w, r.ranks[w]);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,231 @@
+package theory;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Ranking that stores each rank in as few bytes as the largest finite rank needs.
+ *
+ * The storage starts with one byte per world and is widened to shorts and then ints the first
+ * time a rank does not fit. The largest value of each width encodes INFINITY.
+ */
+public class CompactRanking extends Ranking {
+	private static final int BYTE_INFINITY = 0xFF;
+	private static final int SHORT_INFINITY = 0xFFFF;
+
+	// exactly one of these is in use
+	byte[] bytes;
+	short[] shorts;
+	int[] ints;
+
+	// at least the largest finite rank stored
+	int bound;
+
+	public CompactRanking(int vars) {
+		if (vars > ArrayRanking.MAX_VARS) {
+			throw new IllegalArgumentException("too many variables for a compact ranking: " + vars + " (max " + ArrayRanking.MAX_VARS + ")");
+		}
+		this.vars = vars;
+		this.bytes = new byte[1 << vars];
+	}
+
+	/**
+	 * The number of bytes used per world.
+	 */
+	public int width() {
+		return (bytes != null ? 1 : shorts != null ? 2 : 4);
+	}
+
+	public int get(long world) {
+		int i = (int) world;
+		if (bytes != null) {
+			int r = bytes[i] & 0xFF;
+			return (r == BYTE_INFINITY ? INFINITY : r);
+		}
+		if (shorts != null) {
+			int r = shorts[i] & 0xFFFF;
+			return (r == SHORT_INFINITY ? INFINITY : r);
+		}
+		return ints[i];
+	}
+
+	public void set(long world, int rank) {
+		reserve(rank);
+		if (rank != INFINITY && rank > bound) {
+			bound = rank;
+		}
+
+		int i = (int) world;
+		if (bytes != null) {
+			bytes[i] = (byte) (rank == INFINITY ? BYTE_INFINITY : rank);
+		}
+		else if (shorts != null) {
+			shorts[i] = (short) (rank == INFINITY ? SHORT_INFINITY : rank);
+		}
+		else {
+			ints[i] = rank;
+		}
+	}
+
+	/*
+	 * Shifts and fills widen the storage and raise the bound up front, so the range kernels
+	 * never write either and can run in parallel. A shift by n raises the bound by n, which
+	 * costs nothing while the bound still fits the current width. Only when it does not is
+	 * the largest finite rank of the shifted cube looked up, so that theories with many
+	 * defaults, which shift many small cubes by a little, keep narrow storage.
+	 */
+
+	public void shift(Cube c, int n, long threshold) {
+		if (!c.isEmpty() && n > 0) {
+			int raised = plus(bound, n);
+			if (ints != null || raised < limit()) {
+				bound = raised;
+			}
+			else {
+				int m = plus(max(c, threshold), n);
+				reserve(m);
+				if (m != INFINITY && m > bound) {
+					bound = m;
+				}
+			}
+		}
+		super.shift(c, n, threshold);
+	}
+
+	public void fill(Cube c, int rank, long threshold) {
+		if (!c.isEmpty()) {
+			reserve(rank);
+			if (rank != INFINITY && rank > bound) {
+				bound = rank;
+			}
+		}
+		super.fill(c, rank, threshold);
+	}
+
+	/**
+	 * The encoding of INFINITY in the current width, which no finite rank may reach.
+	 */
+	private int limit() {
+		return (bytes != null ? BYTE_INFINITY : shorts != null ? SHORT_INFINITY : INFINITY);
+	}
+
+	/**
+	 * The largest finite rank in c, 0 if there is none.
+	 */
+	private int max(Cube c, long threshold) {
+		long free = c.free(vars);
+		long count = 1L << Long.bitCount(free);
+		if (count <= threshold) {
+			return max(c, free, 0, count);
+		}
+		return ForkJoinPool.commonPool().invoke(new MaxTask(c, free, 0, count, grain(count, threshold)));
+	}
+
+	/**
+	 * The largest finite rank of the members from (inclusive) to to (exclusive) of c.
+	 */
+	private int max(Cube c, long free, long from, long to) {
+		int max = 0;
+		long s = Cube.deposit(from, free);
+		for (long i=from; i<to; i++) {
+			int r = get(c.value | s);
+			if (r != INFINITY && r > max) {
+				max = r;
+			}
+			s = (s - free) & free;
+		}
+		return max;
+	}
+
+	/**
+	 * Makes sure the storage can hold the given rank.
+	 */
+	private void reserve(int rank) {
+		if (rank == INFINITY) {
+			return;
+		}
+
+		if (bytes != null && rank >= BYTE_INFINITY) {
+			shorts = new short[bytes.length];
+			for (int i=0; i<bytes.length; i++) {
+				int r = bytes[i] & 0xFF;
+				shorts[i] = (short) (r == BYTE_INFINITY ? SHORT_INFINITY : r);
+			}
+			bytes = null;
+		}
+		if (shorts != null && rank >= SHORT_INFINITY) {
+			ints = new int[shorts.length];
+			for (int i=0; i<shorts.length; i++) {
+				int r = shorts[i] & 0xFFFF;
+				ints[i] = (r == SHORT_INFINITY ? INFINITY : r);
+			}
+			shorts = null;
+		}
+	}
+
+	/**
+	 * Makes sure the storage uses at least the given number of bytes per world.
+	 */
+	private void reserveWidth(int width) {
+		reserve(width == 1 ? 0 : width == 2 ? BYTE_INFINITY : SHORT_INFINITY);
+	}
+
+	public Ranking widen(int extra) {
+		CompactRanking ret = new CompactRanking(vars + extra);
+		ret.reserveWidth(width());
+		ret.bound = bound;
+		int n = (int) size();
+		for (int i=0; i<ret.size(); i+=n) {
+			copyTo(ret, i);
+		}
+		return ret;
+	}
+
+	public Ranking copy() {
+		CompactRanking ret = new CompactRanking(vars);
+		ret.reserveWidth(width());
+		ret.bound = bound;
+		copyTo(ret, 0);
+		return ret;
+	}
+
+	/**
+	 * Copies all ranks to r, which has the same width, starting at world offset.
+	 */
+	private void copyTo(CompactRanking r, int offset) {
+		if (bytes != null) {
+			System.arraycopy(bytes, 0, r.bytes, offset, bytes.length);
+		}
+		else if (shorts != null) {
+			System.arraycopy(shorts, 0, r.shorts, offset, shorts.length);
+		}
+		else {
+			System.arraycopy(ints, 0, r.ints, offset, ints.length);
+		}
+	}
+
+	private class MaxTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		final Cube c;
+		final long free, from, to, grain;
+
+		MaxTask(Cube c, long free, long from, long to, long grain) {
+			this.c = c;
+			this.free = free;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		protected Integer compute() {
+			if (to - from <= grain) {
+				return max(c, free, from, to);
+			}
+			long mid = (from + to) >>> 1;
+			MaxTask left = new MaxTask(c, free, from, mid, grain);
+			left.fork();
+			int right = new MaxTask(c, free, mid, to, grain).compute();
+			return Math.max(left.join(), right);
+		}
+	}
+}
@@ -1,10 +1,13 @@
 package theory;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import logic.Atom;
 import logic.Formula;
+import logic.VariableRegistry;
 
 public class Conditional {
 	Formula lhs;
@@ -12,7 +15,26 @@ public class Conditional {
 	Set<Constraint> constraintsClauses;
 	HashSet<String> vars;
 	
-	public Conditional(String str) throws Exception {
+	// compiled form: the worlds verifying and falsifying the conditional.
+	// A strict conditional (positive formula "false") is satisfied only by making its exceptions impossible.
+	Cube antecedent;
+	Cube positive;
+	Cube exception;
+	boolean strict;
+	
+	// the conditionals whose satisfaction can change when the exceptions of this one are shifted
+	List<Conditional> dependents = new ArrayList<Conditional>();
+	boolean queued = false;
+	
+	// the minimal ranks of the positive and exception worlds, maintained by the fixpoint; valid unless dirty
+	int minPositive;
+	int minException;
+	boolean dirty = true;
+	
+	/**
+	 * Parses and compiles a conditional over the given vocabulary of declared variables.
+	 */
+	public Conditional(String str, VariableRegistry vocabulary) throws Exception {
 		if (!str.contains("=>") && !str.contains("->")) {
 			throw new Exception("conditional => or -> missing");
 		}
@@ -38,17 +60,80 @@ public class Conditional {
 			throw new Exception("Syntax error");
 		}
 		
-		lhs = new Formula(form[0].trim());
-		rhs = new Atom(form[1].trim());
+		lhs = new Formula(form[0].trim(), vocabulary);
+		rhs = new Atom(form[1].trim(), vocabulary);
 		
 		vars = lhs.getVars();
 		if (!rhs.isBoolean()) {
 			vars.add(rhs.getVar());
 		}
-						
-		if (!Theory.vars.containsAll(vars)) {
+		
+		boolean declared = rhs.isBoolean() || rhs.getId() != VariableRegistry.UNDECLARED;
+		for (Atom a : lhs.getAtoms()) {
+			declared &= a.isBoolean() || a.getId() != VariableRegistry.UNDECLARED;
+		}
+		if (!declared) {
 			throw new Exception("Illegal variables used in conditional \"" + str + "\": first declare them!");
 		}
+		
+		compile();
+	}
+	
+	private void compile() {
+		Cube l = Cube.TOP;
+		for (Atom a : lhs.getAtoms()) {
+			if (!a.isBoolean()) {
+				l = l.and(a.getId(), a.isNegated());
+			}
+		}
+		
+		antecedent = (lhs.isBoolean(false) ? Cube.BOTTOM : l);
+		strict = lhs.isBoolean(false) || rhs.isBoolean(false);
+		
+		if (strict) {
+			positive = Cube.TOP;
+			exception = antecedent;
+		}
+		else if (rhs.isBoolean(true)) {
+			positive = l;
+			exception = Cube.BOTTOM;
+		}
+		else {
+			positive = l.and(rhs.getId(), rhs.isNegated());
+			exception = l.and(rhs.getId(), !rhs.isNegated());
+		}
+	}
+	
+	/**
+	 * Whether shifting the exception worlds of this conditional can change the satisfaction of c.
+	 */
+	boolean affects(Conditional c) {
+		return exception.overlaps(c.positive) || exception.overlaps(c.exception);
+	}
+	
+	/**
+	 * Updates the cached minima after the worlds of region were set to rank n or shifted by n.
+	 * A minimum whose cube lies within or outside the region follows exactly; one whose cube
+	 * is only partly shifted is unknown until the next recomputation.
+	 */
+	void shifted(Cube region, boolean fill, int n) {
+		if (dirty) {
+			return;
+		}
+		if (positive.overlaps(region)) {
+			if (!region.contains(positive)) {
+				dirty = true;
+				return;
+			}
+			minPositive = (fill ? n : Ranking.plus(minPositive, n));
+		}
+		if (exception.overlaps(region)) {
+			if (!region.contains(exception)) {
+				dirty = true;
+				return;
+			}
+			minException = (fill ? n : Ranking.plus(minException, n));
+		}
 	}
 	
 	public HashSet<String> getVars() {
@@ -0,0 +1,99 @@
+package theory;
+
+/**
+ * A conjunction of literals compiled to bitmasks: world w satisfies the cube iff (w & care) == value.
+ * Contradictory conjunctions compile to the empty cube.
+ */
+public class Cube {
+	public static final Cube TOP = new Cube(0, 0, false);
+	public static final Cube BOTTOM = new Cube(0, 0, true);
+
+	final long care;
+	final long value;
+	final boolean empty;
+
+	private Cube(long care, long value, boolean empty) {
+		this.care = care;
+		this.value = value;
+		this.empty = empty;
+	}
+
+	/**
+	 * Returns this cube conjoined with the literal (-)var, or BOTTOM if that contradicts the cube.
+	 */
+	public Cube and(int var, boolean negated) {
+		long bit = 1L << var;
+
+		if (empty || ((care & bit) != 0 && ((value & bit) != 0) == negated)) {
+			return BOTTOM;
+		}
+		return new Cube(care | bit, negated ? value : value | bit, false);
+	}
+
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * The variables of a vocabulary of the given size that the cube leaves free.
+	 */
+	public long free(int vars) {
+		return (vars == 64 ? -1L : (1L << vars) - 1) & ~care;
+	}
+	
+	/**
+	 * Deposits the low bits of bits into the set positions of mask, lowest first.
+	 */
+	public static long deposit(long bits, long mask) {
+		long ret = 0;
+		for (long m = mask; m != 0 && bits != 0; m &= m - 1, bits >>>= 1) {
+			if ((bits & 1) != 0) {
+				ret |= m & -m;
+			}
+		}
+		return ret;
+	}
+	
+	public boolean contains(long world) {
+		return !empty && (world & care) == value;
+	}
+	
+	/**
+	 * Whether every world of c is in this cube.
+	 */
+	public boolean contains(Cube c) {
+		return c.empty || (!empty && (care & ~c.care) == 0 && (c.value & care) == value);
+	}
+	
+	public boolean overlaps(Cube c) {
+		return !empty && !c.empty && ((value ^ c.value) & care & c.care) == 0;
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof Cube)) {
+			return false;
+		}
+		Cube c = (Cube) o;
+		return empty ? c.empty : (!c.empty && care == c.care && value == c.value);
+	}
+
+	public int hashCode() {
+		return empty ? -1 : Long.hashCode(care * 31 + value);
+	}
+
+	public String toString() {
+		if (empty) {
+			return "false";
+		}
+		if (care == 0) {
+			return "true";
+		}
+		String ret = "";
+		for (int i=0; i<64; i++) {
+			if ((care & (1L << i)) != 0) {
+				ret += (ret.isEmpty() ? "" : " and ") + ((value & (1L << i)) != 0 ? "" : "-") + "#" + i;
+			}
+		}
+		return ret;
+	}
+}
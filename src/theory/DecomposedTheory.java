@@ -0,0 +1,264 @@
+package theory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+import logic.VariableRegistry;
+
+/**
+ * A theory split into components that share no variables.
+ *
+ * Conditionals over disjoint variables constrain the ranking independently: the rank of a world
+ * is the sum of the ranks of its parts in the components, and so is the minimal rank of a cube.
+ * Every component is ranked as a theory of its own over just its variables, so two independent
+ * modules of 15 variables take 2 * 2^15 worlds instead of 2^30.
+ *
+ * Adding a conditional merges the components of its variables. A query only depends on the
+ * components of its own variables, which hold all conditionals reachable from them through shared
+ * variables: the other components add the same minimal rank to its positive and exception worlds.
+ * So a query is answered on the rankings of just those components, which are (re)built on demand,
+ * and unrelated parts of the knowledge base never need to be ranked for it. In particular a
+ * conditional that makes an unrelated component inconsistent does not affect the query.
+ */
+public class DecomposedTheory {
+	VariableRegistry vars = new VariableRegistry();
+	List<Component> components = new ArrayList<Component>();
+	// owners.get(v) is the component of the variable with id v
+	List<Component> owners = new ArrayList<Component>();
+	// numbers the conditionals, so that every component adds its own in the original order
+	int added = 0;
+	
+	static class Component {
+		// the ids of the variables, ascending: vars[i] is variable i of the component's theory
+		final int[] vars;
+		final TreeMap<Integer, String> conditionals = new TreeMap<Integer, String>();
+		// null until built
+		Theory theory;
+		
+		Component(int[] vars) {
+			this.vars = vars;
+		}
+		
+		/**
+		 * The part of c over the variables of this component, in its own ids. The cube is over
+		 * the ids of scope, whose variables have the given ids in the theory.
+		 */
+		Cube project(Cube c, VariableRegistry scope, VariableRegistry names) {
+			if (c.isEmpty()) {
+				return Cube.BOTTOM;
+			}
+			Cube ret = Cube.TOP;
+			for (long care = c.care; care != 0; care &= care - 1) {
+				int v = Long.numberOfTrailingZeros(care);
+				int i = Arrays.binarySearch(vars, names.id(scope.name(v)));
+				if (i >= 0) {
+					ret = ret.and(i, (c.value & (1L << v)) == 0);
+				}
+			}
+			return ret;
+		}
+		
+		void build(VariableRegistry names) throws Exception {
+			Theory t = new Theory();
+			if (vars.length > 0) {
+				String prop = "";
+				for (int v : vars) {
+					prop += (prop.isEmpty() ? "" : " ") + names.name(v);
+				}
+				t.addVars(prop);
+			}
+			// in their original order, like the whole theory would: shifts in other
+			// components do not change the shifts of this one
+			for (String cond : conditionals.values()) {
+				t.addCond(cond);
+			}
+			theory = t;
+		}
+	}
+	
+	public synchronized void addVars(String prop) {
+		for (String p : prop.split(" ")) {
+			if (vars.intern(p) == owners.size()) {
+				Component c = new Component(new int[] {owners.size()});
+				components.add(c);
+				owners.add(c);
+			}
+		}
+	}
+	
+	public synchronized void addCond(String conds) throws Exception {
+		for (String cond : conds.split(",")) {
+			add(cond.trim());
+		}
+	}
+	
+	public synchronized void addConds(Collection<String> conds) throws Exception {
+		for (String cond : conds) {
+			add(cond.trim());
+		}
+	}
+	
+	/**
+	 * Parses the conditional to check it and merges the components of its variables.
+	 */
+	private void add(String cond) throws Exception {
+		VariableRegistry scope = new VariableRegistry();
+		parse(cond, scope);
+		Set<Component> parts = relevant(scope);
+		
+		Component merged;
+		if (parts.size() == 1) {
+			merged = parts.iterator().next();
+		}
+		else {
+			List<Integer> ids = new ArrayList<Integer>();
+			for (Component p : parts) {
+				for (int v : p.vars) {
+					ids.add(v);
+				}
+			}
+			merged = new Component(ids.stream().mapToInt(Integer::intValue).sorted().toArray());
+			for (Component p : parts) {
+				merged.conditionals.putAll(p.conditionals);
+				components.remove(p);
+			}
+			for (int v : merged.vars) {
+				owners.set(v, merged);
+			}
+			components.add(merged);
+		}
+		
+		merged.conditionals.put(added++, cond);
+		merged.theory = null;
+	}
+	
+	/**
+	 * Builds the rankings of all components that changed since they were last built, in parallel.
+	 */
+	public synchronized void build() throws Exception {
+		build(components);
+	}
+	
+	private void build(Collection<Component> comps) throws Exception {
+		final List<Component> todo = new ArrayList<Component>();
+		for (Component c : comps) {
+			if (c.theory == null) {
+				todo.add(c);
+			}
+		}
+		
+		final Exception[] errors = new Exception[todo.size()];
+		IntStream.range(0, todo.size()).parallel().forEach(i -> {
+			try {
+				todo.get(i).build(vars);
+			} catch (Exception e) {
+				errors[i] = e;
+			}
+		});
+		for (Exception e : errors) {
+			if (e != null) {
+				throw e;
+			}
+		}
+	}
+	
+	public synchronized boolean query(String cond) throws Exception {
+		VariableRegistry scope = new VariableRegistry();
+		Conditional c = parse(cond, scope);
+		Set<Component> relevant = relevant(scope);
+		build(relevant);
+		return ranking(c.positive, scope, relevant) < ranking(c.exception, scope, relevant);
+	}
+	
+	/**
+	 * Parses the conditional over scope, a vocabulary of just its own variables, after checking
+	 * that they are declared. Cubes hold at most 64 variables, so conditionals are never compiled
+	 * over the whole vocabulary, which may be larger.
+	 */
+	private Conditional parse(String cond, VariableRegistry scope) throws Exception {
+		for (String name : new Conditional(cond, vars).getVars()) {
+			scope.intern(name);
+		}
+		return new Conditional(cond, scope);
+	}
+	
+	/**
+	 * The components of the variables in scope.
+	 */
+	private Set<Component> relevant(VariableRegistry scope) {
+		Set<Component> ret = new LinkedHashSet<Component>();
+		for (String name : scope.names()) {
+			ret.add(owners.get(vars.id(name)));
+		}
+		return ret;
+	}
+	
+	public synchronized List<Boolean> queryAll(Collection<String> conds) throws Exception {
+		List<Boolean> ret = new ArrayList<Boolean>(conds.size());
+		for (String cond : conds) {
+			ret.add(query(cond));
+		}
+		return ret;
+	}
+	
+	/**
+	 * The minimal rank of c, a cube over scope, over the given components: the sum of the minimal
+	 * ranks of its parts.
+	 */
+	private int ranking(Cube c, VariableRegistry scope, Collection<Component> comps) {
+		if (c.isEmpty()) {
+			return Ranking.INFINITY;
+		}
+		int ret = 0;
+		for (Component comp : comps) {
+			ret = Ranking.plus(ret, comp.theory.ranks.min(comp.project(c, scope, vars)));
+		}
+		return ret;
+	}
+	
+	/**
+	 * The number of worlds in the rankings built so far.
+	 */
+	public synchronized long builtWorlds() {
+		long ret = 0;
+		for (Component c : components) {
+			if (c.theory != null) {
+				ret += 1L << c.vars.length;
+			}
+		}
+		return ret;
+	}
+	
+	public synchronized int components() {
+		return components.size();
+	}
+	
+	/**
+	 * The number of worlds over all components, whether built or not.
+	 */
+	public synchronized long worlds() {
+		long ret = 0;
+		for (Component c : components) {
+			ret += 1L << c.vars.length;
+		}
+		return ret;
+	}
+	
+	public synchronized String toString() {
+		String ret = "--- propositions:\n" + vars + "\n\n" + "--- components:\n";
+		for (Component c : components) {
+			List<String> names = new ArrayList<String>();
+			for (int v : c.vars) {
+				names.add(vars.name(v));
+			}
+			ret += names + ": " + c.conditionals.values() + "\n";
+		}
+		return ret;
+	}
+}
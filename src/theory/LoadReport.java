@@ -0,0 +1,56 @@
+package theory;
+
+/**
+ * Timing and iteration counts of loading a batch of conditionals into a theory.
+ */
+public class LoadReport {
+	int conditionals = 0;
+	long parseNanos = 0;
+	long linkNanos = 0;
+	long fixpointNanos = 0;
+	// satisfaction checks and shifts performed by the fixpoint
+	int checks = 0;
+	int shifts = 0;
+	// checks that found a conditional without any possible world, which stays unsatisfied
+	int unsatisfiable = 0;
+
+	public int getConditionals() {
+		return conditionals;
+	}
+
+	public long getParseNanos() {
+		return parseNanos;
+	}
+
+	public long getLinkNanos() {
+		return linkNanos;
+	}
+
+	public long getFixpointNanos() {
+		return fixpointNanos;
+	}
+
+	public int getChecks() {
+		return checks;
+	}
+
+	public int getShifts() {
+		return shifts;
+	}
+
+	public int getUnsatisfiable() {
+		return unsatisfiable;
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.2f ms", nanos / 1e6);
+	}
+
+	public String toString() {
+		return "loaded " + conditionals + " conditionals: "
+				+ "parse " + millis(parseNanos) + ", "
+				+ "link " + millis(linkNanos) + ", "
+				+ "fixpoint " + millis(fixpointNanos) + " (" + checks + " checks, " + shifts + " shifts)"
+				+ (unsatisfiable > 0 ? ", " + unsatisfiable + " unsatisfiable" : "");
+	}
+}
@@ -0,0 +1,129 @@
+package theory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Ranking stored off-heap in a memory-mapped file, for vocabularies whose ranking does not fit on the heap.
+ *
+ * The ranks are laid out as little-endian ints in world order, mapped in segments of 2^28 worlds.
+ * Cube members are visited in increasing world order, so scans read the file sequentially and
+ * the OS page cache decides what stays in memory.
+ */
+public class MappedRanking extends Ranking {
+	static final int SEGMENT_BITS = 28;
+	static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	final File dir;
+	final File file;
+	final IntBuffer[] segments;
+
+	/**
+	 * An empty-vocabulary ranking whose files are created in dir.
+	 */
+	public MappedRanking(File dir) throws IOException {
+		this(dir, 0);
+	}
+
+	public MappedRanking(File dir, int vars) throws IOException {
+		if (vars > 62) {
+			throw new IllegalArgumentException("too many variables for a mapped ranking: " + vars);
+		}
+		this.dir = dir;
+		this.vars = vars;
+		this.file = File.createTempFile("ranking", ".ranks", dir);
+		file.deleteOnExit();
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			segments = map(raf.getChannel(), 0, size(), FileChannel.MapMode.READ_WRITE);
+		}
+	}
+
+	/**
+	 * A copy-on-write view of the ranks stored from offset on in an existing file, such as a
+	 * snapshot: changes stay in memory and never reach the file. Copies and widened rankings
+	 * are created in dir.
+	 */
+	MappedRanking(File dir, File source, long offset, int vars) throws IOException {
+		this.dir = dir;
+		this.vars = vars;
+		this.file = null;
+
+		// private mappings need a channel open for writing, although nothing is written
+		try (RandomAccessFile raf = new RandomAccessFile(source, "rw")) {
+			segments = map(raf.getChannel(), offset, size(), FileChannel.MapMode.PRIVATE);
+		}
+	}
+
+	/**
+	 * Maps the given number of ranks starting at offset, one buffer per segment.
+	 */
+	static IntBuffer[] map(FileChannel channel, long offset, long count, FileChannel.MapMode mode) throws IOException {
+		IntBuffer[] ret = new IntBuffer[(int) ((count + SEGMENT_MASK) >>> SEGMENT_BITS)];
+		for (int i=0; i<ret.length; i++) {
+			long first = (long) i << SEGMENT_BITS;
+			long n = Math.min(count - first, 1L << SEGMENT_BITS);
+			ret[i] = channel.map(mode, offset + first * 4, n * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+		return ret;
+	}
+
+	public int get(long world) {
+		return segments[(int) (world >>> SEGMENT_BITS)].get((int) (world & SEGMENT_MASK));
+	}
+
+	public void set(long world, int rank) {
+		segments[(int) (world >>> SEGMENT_BITS)].put((int) (world & SEGMENT_MASK), rank);
+	}
+
+	public Ranking widen(int extra) {
+		try {
+			MappedRanking ret = new MappedRanking(dir, vars + extra);
+			for (long block=0; block<ret.size(); block+=size()) {
+				copyTo(ret, block);
+			}
+			delete();
+			return ret;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public Ranking copy() {
+		try {
+			MappedRanking ret = new MappedRanking(dir, vars);
+			copyTo(ret, 0);
+			return ret;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Copies all ranks to r, starting at world offset.
+	 */
+	private void copyTo(MappedRanking r, long offset) {
+		for (long w=0; w<size(); w++) {
+			r.set(offset + w, get(w));
+		}
+	}
+
+	/**
+	 * Removes the backing file, unless the ranking is a view of another file; the ranking
+	 * must not be used afterwards.
+	 */
+	public void delete() {
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+	public void release() {
+		delete();
+	}
+}
@@ -0,0 +1,152 @@
+package theory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates a batch of queries with one pass over the members of each antecedent.
+ *
+ * The positive and exception cubes of all queries are deduplicated and grouped by the
+ * antecedent they lie in. Each group walks only the worlds of its antecedent, like
+ * Ranking.min(), and reduces the ranks of all its cubes at once.
+ */
+class QueryBatch {
+	private static class Group {
+		Cube antecedent;
+		List<Cube> list = new ArrayList<Cube>();
+		Cube[] cubes;
+		int[] slots;
+	}
+
+	private final List<Conditional> queries;
+	private final Map<Cube, Integer> slots = new HashMap<Cube, Integer>();
+	private final Map<Cube, Group> groups = new LinkedHashMap<Cube, Group>();
+	private int[] mins;
+
+	QueryBatch(List<Conditional> queries) {
+		this.queries = queries;
+
+		for (Conditional c : queries) {
+			// the cubes of a strict conditional are not confined to its antecedent
+			Cube key = (c.strict ? Cube.TOP : c.antecedent);
+			add(key, c.positive);
+			add(key, c.exception);
+		}
+	}
+
+	private void add(Cube key, Cube c) {
+		if (c.isEmpty() || slots.containsKey(c)) {
+			return;
+		}
+		slots.put(c, slots.size());
+
+		Group g = groups.get(key);
+		if (g == null) {
+			g = new Group();
+			g.antecedent = key;
+			groups.put(key, g);
+		}
+		g.list.add(c);
+	}
+
+	/**
+	 * Evaluates the batch; antecedents with more members than the threshold are scanned by fork-join tasks.
+	 */
+	List<Boolean> run(Ranking ranks, long threshold) {
+		mins = new int[slots.size()];
+
+		for (Group g : groups.values()) {
+			g.cubes = g.list.toArray(new Cube[g.list.size()]);
+			g.slots = new int[g.cubes.length];
+			for (int j=0; j<g.cubes.length; j++) {
+				g.slots[j] = slots.get(g.cubes[j]);
+			}
+
+			long free = g.antecedent.free(ranks.vars());
+			long count = 1L << Long.bitCount(free);
+			int[] m;
+			if (count <= threshold) {
+				m = scan(ranks, g, free, 0, count);
+			}
+			else {
+				long grain = Math.max(threshold, count / (4 * ForkJoinPool.getCommonPoolParallelism()));
+				m = ForkJoinPool.commonPool().invoke(new ScanTask(ranks, g, free, 0, count, grain));
+			}
+
+			// every cube belongs to exactly one group
+			for (int j=0; j<m.length; j++) {
+				mins[g.slots[j]] = m[j];
+			}
+		}
+
+		List<Boolean> ret = new ArrayList<Boolean>(queries.size());
+		for (Conditional c : queries) {
+			ret.add(min(c.positive) < min(c.exception));
+		}
+		return ret;
+	}
+
+	/**
+	 * The minimal rank of every cube of g over the members from (inclusive) to to (exclusive)
+	 * of its antecedent, whose free bits are given.
+	 */
+	private int[] scan(Ranking ranks, Group g, long free, long from, long to) {
+		int[] ret = new int[g.cubes.length];
+		Arrays.fill(ret, Ranking.INFINITY);
+
+		long s = Cube.deposit(from, free);
+		for (long i=from; i<to; i++) {
+			long w = g.antecedent.value | s;
+			int r = ranks.get(w);
+
+			for (int j=0; j<ret.length; j++) {
+				if (r < ret[j] && g.cubes[j].contains(w)) {
+					ret[j] = r;
+				}
+			}
+			s = (s - free) & free;
+		}
+		return ret;
+	}
+
+	private class ScanTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		final Ranking ranks;
+		final Group g;
+		final long free, from, to, grain;
+
+		ScanTask(Ranking ranks, Group g, long free, long from, long to, long grain) {
+			this.ranks = ranks;
+			this.g = g;
+			this.free = free;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		protected int[] compute() {
+			if (to - from <= grain) {
+				return scan(ranks, g, free, from, to);
+			}
+			long mid = (from + to) >>> 1;
+			ScanTask left = new ScanTask(ranks, g, free, from, mid, grain);
+			left.fork();
+			int[] ret = new ScanTask(ranks, g, free, mid, to, grain).compute();
+			int[] l = left.join();
+			for (int i=0; i<ret.length; i++) {
+				ret[i] = Math.min(ret[i], l[i]);
+			}
+			return ret;
+		}
+	}
+
+	private int min(Cube c) {
+		return c.isEmpty() ? Ranking.INFINITY : mins[slots.get(c)];
+	}
+}
@@ -0,0 +1,116 @@
+package theory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of query results, keyed by the compiled form of the query.
+ *
+ * Entries are only valid for the ranking epoch they were computed in: the first lookup
+ * with a newer epoch drops the whole cache.
+ */
+public class QueryCache {
+	private static class Key {
+		final Cube positive;
+		final Cube exception;
+
+		Key(Conditional c) {
+			positive = c.positive;
+			exception = c.exception;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return positive.equals(k.positive) && exception.equals(k.exception);
+		}
+
+		public int hashCode() {
+			return positive.hashCode() * 31 + exception.hashCode();
+		}
+	}
+
+	private final int capacity;
+	private final LinkedHashMap<Key, Boolean> entries;
+	private long epoch = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+
+	public QueryCache(int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+				if (size() > QueryCache.this.capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * The cached result of c in the given epoch, or null.
+	 */
+	synchronized Boolean get(Conditional c, long epoch) {
+		if (epoch != this.epoch) {
+			if (!entries.isEmpty()) {
+				invalidations++;
+			}
+			entries.clear();
+			this.epoch = epoch;
+		}
+
+		Boolean ret = entries.get(new Key(c));
+		if (ret == null) {
+			misses++;
+		}
+		else {
+			hits++;
+		}
+		return ret;
+	}
+
+	synchronized void put(Conditional c, long epoch, boolean result) {
+		if (epoch == this.epoch && capacity > 0) {
+			entries.put(new Key(c), result);
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	public synchronized String toString() {
+		return "query cache: " + entries.size() + "/" + capacity + " entries, "
+				+ hits + " hits, " + misses + " misses, "
+				+ evictions + " evictions, " + invalidations + " invalidations";
+	}
+}
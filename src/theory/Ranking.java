@@ -0,0 +1,221 @@
+package theory;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A ranking function over all worlds of a vocabulary.
+ *
+ * Worlds are identified by their bitmask: bit i holds the truth value of the i-th declared variable.
+ */
+public abstract class Ranking {
+	public static final int INFINITY = Integer.MAX_VALUE;
+
+	protected int vars;
+
+	public int vars() {
+		return vars;
+	}
+
+	public long size() {
+		return 1L << vars;
+	}
+
+	/**
+	 * Adds n >= 0 to a rank, saturating at INFINITY: infinite ranks stay infinite and sums
+	 * that do not fit become infinite instead of overflowing.
+	 */
+	public static int plus(int rank, int n) {
+		return (rank > INFINITY - n ? INFINITY : rank + n);
+	}
+
+	public abstract int get(long world);
+
+	public abstract void set(long world, int rank);
+
+	public abstract Ranking copy();
+
+	/**
+	 * A ranking over this vocabulary extended by the given number of variables, in which
+	 * every extension w | x << vars() of a world w has the rank of w.
+	 */
+	public abstract Ranking widen(int extra);
+
+	/**
+	 * Announces the cubes the ranking is about to be scanned with. Backends whose cost depends
+	 * on the layout of the variables may reorganize; the ranks stay the same.
+	 */
+	public void prepare(Collection<Cube> cubes) {
+	}
+
+	/**
+	 * Frees what the ranking holds outside the heap, such as a backing file. The ranking
+	 * must not be used afterwards.
+	 */
+	public void release() {
+	}
+
+	public boolean sameRanks(Ranking r) {
+		if (r.vars != vars) {
+			return false;
+		}
+		for (long w=0; w<size(); w++) {
+			if (get(w) != r.get(w)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * The cube kernels below visit only the members of the cube. The i-th member is the world
+	 * with the bits of i deposited into the free positions; from there the next members follow
+	 * with the carry-ripple step s = (s - free) & free.
+	 *
+	 * With a threshold, cubes with more members than the threshold are split into ranges of
+	 * members that are processed by fork-join tasks. The ranges are disjoint and the minimum
+	 * does not depend on the order of evaluation, so the result equals the sequential one.
+	 */
+
+	/**
+	 * The minimal rank of the worlds in c, INFINITY if c is empty.
+	 */
+	public int min(Cube c) {
+		return min(c, Long.MAX_VALUE);
+	}
+
+	public int min(Cube c, long threshold) {
+		if (c.isEmpty()) {
+			return INFINITY;
+		}
+
+		long free = c.free(vars);
+		long count = 1L << Long.bitCount(free);
+		if (count <= threshold) {
+			return min(c, free, 0, count);
+		}
+		return ForkJoinPool.commonPool().invoke(new MinTask(c, free, 0, count, grain(count, threshold)));
+	}
+
+	public void shift(Cube c, int n) {
+		shift(c, n, Long.MAX_VALUE);
+	}
+
+	public void shift(Cube c, int n, long threshold) {
+		update(c, false, n, threshold);
+	}
+
+	public void fill(Cube c, int rank) {
+		fill(c, rank, Long.MAX_VALUE);
+	}
+
+	public void fill(Cube c, int rank, long threshold) {
+		update(c, true, rank, threshold);
+	}
+
+	private void update(Cube c, boolean fill, int n, long threshold) {
+		if (c.isEmpty()) {
+			return;
+		}
+
+		long free = c.free(vars);
+		long count = 1L << Long.bitCount(free);
+		if (count <= threshold) {
+			update(c, free, 0, count, fill, n);
+		}
+		else {
+			ForkJoinPool.commonPool().invoke(new UpdateTask(c, free, 0, count, fill, n, grain(count, threshold)));
+		}
+	}
+
+	/**
+	 * The size of the ranges handed to the tasks: enough ranges to keep every worker busy,
+	 * but none smaller than the threshold.
+	 */
+	protected static long grain(long count, long threshold) {
+		return Math.max(Math.max(threshold, 1), count / (4 * ForkJoinPool.getCommonPoolParallelism()));
+	}
+
+	/**
+	 * The minimal rank of the members from (inclusive) to to (exclusive) of c.
+	 */
+	protected int min(Cube c, long free, long from, long to) {
+		int min = INFINITY;
+		long s = Cube.deposit(from, free);
+		for (long i=from; i<to; i++) {
+			int r = get(c.value | s);
+			if (r < min) {
+				min = r;
+			}
+			s = (s - free) & free;
+		}
+		return min;
+	}
+
+	/**
+	 * Sets the members from (inclusive) to to (exclusive) of c to rank n, or shifts them by n >= 0.
+	 */
+	protected void update(Cube c, long free, long from, long to, boolean fill, int n) {
+		long s = Cube.deposit(from, free);
+		for (long i=from; i<to; i++) {
+			long w = c.value | s;
+			set(w, fill ? n : plus(get(w), n));
+			s = (s - free) & free;
+		}
+	}
+
+	private class MinTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		final Cube c;
+		final long free, from, to, grain;
+
+		MinTask(Cube c, long free, long from, long to, long grain) {
+			this.c = c;
+			this.free = free;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		protected Integer compute() {
+			if (to - from <= grain) {
+				return min(c, free, from, to);
+			}
+			long mid = (from + to) >>> 1;
+			MinTask left = new MinTask(c, free, from, mid, grain);
+			left.fork();
+			int right = new MinTask(c, free, mid, to, grain).compute();
+			return Math.min(left.join(), right);
+		}
+	}
+
+	private class UpdateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final Cube c;
+		final long free, from, to, grain;
+		final boolean fill;
+		final int n;
+
+		UpdateTask(Cube c, long free, long from, long to, boolean fill, int n, long grain) {
+			this.c = c;
+			this.free = free;
+			this.from = from;
+			this.to = to;
+			this.fill = fill;
+			this.n = n;
+			this.grain = grain;
+		}
+
+		protected void compute() {
+			if (to - from <= grain) {
+				update(c, free, from, to, fill, n);
+				return;
+			}
+			long mid = (from + to) >>> 1;
+			invokeAll(new UpdateTask(c, free, from, mid, fill, n, grain),
+					new UpdateTask(c, free, mid, to, fill, n, grain));
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package theory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import logic.VariableRegistry;
+
+/**
+ * On-disk cache of constructed theories, keyed by a fingerprint of their content.
+ *
+ * The fingerprint is the SHA-256 of a canonical form of the theory: the variables in order of
+ * declaration and the compiled cubes of the conditionals in order of addition. Theories that only
+ * differ in spacing, in the order of the literals of a conjunction or in writing a -> b as
+ * a and -b => false thus share an entry. Entries are snapshots, so a hit is restored by mapping
+ * the file instead of running the fixpoint.
+ *
+ * The cache is bounded by the total size of its files; the least recently used entries are evicted.
+ * Evicting the file of a restored theory is harmless, its mapping stays valid.
+ */
+public class RankingCache {
+	static final String SUFFIX = ".snapshot";
+
+	private final File dir;
+	private final long capacity;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * A cache in dir that keeps at most capacity bytes of snapshots.
+	 */
+	public RankingCache(File dir, long capacity) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot create cache directory " + dir);
+		}
+		this.dir = dir;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * The theory over the given variables with the given conditionals added one by one with
+	 * Theory.addCond(), restored from the cache if it was built before. The ranking depends on
+	 * the order of the conditionals, which the fingerprint keeps, so a hit is the ranking that
+	 * building the theory would give.
+	 */
+	public Theory build(String vars, Collection<String> conds) throws Exception {
+		VariableRegistry vocabulary = new VariableRegistry();
+		for (String p : vars.split(" ")) {
+			vocabulary.intern(p);
+		}
+		List<Conditional> compiled = new ArrayList<Conditional>();
+		for (String cond : conds) {
+			compiled.add(new Conditional(cond.trim(), vocabulary));
+		}
+		String key = fingerprint(vocabulary, compiled);
+
+		Theory ret = get(key);
+		if (ret == null) {
+			ret = new Theory();
+			ret.addVars(vars);
+			for (String cond : conds) {
+				ret.addCond(cond);
+			}
+			put(key, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * The cached theory with the given fingerprint, or null.
+	 */
+	public synchronized Theory get(String key) {
+		File file = new File(dir, key + SUFFIX);
+		if (file.isFile()) {
+			try {
+				Theory ret = Snapshot.read(file);
+				file.setLastModified(System.currentTimeMillis());
+				hits++;
+				return ret;
+			} catch (IOException e) {
+				// corrupt or stale, build it again
+				file.delete();
+			}
+		}
+		misses++;
+		return null;
+	}
+
+	public synchronized void put(String key, Theory theory) throws IOException {
+		Snapshot.write(theory, new File(dir, key + SUFFIX));
+		evict();
+	}
+
+	/**
+	 * Deletes the least recently used snapshots until the cache fits its capacity.
+	 */
+	private void evict() {
+		File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+		long size = 0;
+		for (File f : files) {
+			size += f.length();
+		}
+		for (int i=0; i<files.length && size>capacity; i++) {
+			size -= files[i].length();
+			files[i].delete();
+			evictions++;
+		}
+	}
+
+	public static String fingerprint(Theory theory) {
+		synchronized (theory) {
+			return fingerprint(theory.vars, theory.conditionals);
+		}
+	}
+
+	static String fingerprint(VariableRegistry vars, List<Conditional> conditionals) {
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform provides SHA-256
+			throw new IllegalStateException(e);
+		}
+
+		ByteBuffer buf = ByteBuffer.allocate(64);
+		buf.putInt(Snapshot.VERSION).putInt(vars.size());
+		update(sha, buf);
+		for (String name : vars.names()) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			buf.putInt(bytes.length);
+			update(sha, buf);
+			sha.update(bytes);
+		}
+
+		buf.putInt(conditionals.size());
+		update(sha, buf);
+		for (Conditional c : conditionals) {
+			for (Cube cube : new Cube[] {c.antecedent, c.positive, c.exception}) {
+				buf.putLong(cube.care).putLong(cube.value).put((byte) (cube.empty ? 1 : 0));
+			}
+			buf.put((byte) (c.strict ? 1 : 0));
+			update(sha, buf);
+		}
+
+		String ret = "";
+		for (byte b : sha.digest()) {
+			ret += String.format("%02x", b);
+		}
+		return ret;
+	}
+
+	private static void update(MessageDigest sha, ByteBuffer buf) {
+		buf.flip();
+		sha.update(buf);
+		buf.clear();
+	}
+
+	/**
+	 * The total size of the snapshots in the cache, in bytes.
+	 */
+	public synchronized long size() {
+		long ret = 0;
+		File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+		for (File f : (files == null ? new File[0] : files)) {
+			ret += f.length();
+		}
+		return ret;
+	}
+
+	public long capacity() {
+		return capacity;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized String toString() {
+		return "ranking cache: " + size() + "/" + capacity + " bytes, "
+				+ hits + " hits, " + misses + " misses, " + evictions + " evictions";
+	}
+}
@@ -0,0 +1,236 @@
+package theory;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Ranking stored in a segment tree over the worlds, with lazy range shifts.
+ *
+ * The leaves are the worlds with their variables permuted into a layout. A cube whose free
+ * variables include the lowest t bits of the layout consists of aligned blocks of 2^t leaves,
+ * and each block is a single tree node: its minimum is read and its ranks are shifted in
+ * O(log 2^n) instead of visiting every world. prepare() moves the most frequently fixed
+ * variables to the high bits so that the conditionals' cubes form few, large blocks.
+ *
+ * Each node holds the minimum of its subtree and, for inner nodes, a shift not yet passed on
+ * to its children; the true rank of a node is its minimum plus the pending shifts of its ancestors.
+ * The tree is not thread-safe, so all operations run sequentially.
+ */
+public class SegmentTreeRanking extends Ranking {
+	// position[v] is the bit of the leaf index that holds variable v
+	int[] position;
+	int leaves;
+	int[] min;
+	int[] lazy;
+
+	public SegmentTreeRanking(int vars) {
+		if (vars > ArrayRanking.MAX_VARS - 1) {
+			throw new IllegalArgumentException("too many variables for a segment tree ranking: " + vars + " (max " + (ArrayRanking.MAX_VARS - 1) + ")");
+		}
+		this.vars = vars;
+		this.leaves = 1 << vars;
+		this.min = new int[2 * leaves];
+		this.lazy = new int[leaves];
+		this.position = new int[vars];
+		for (int v=0; v<vars; v++) {
+			position[v] = v;
+		}
+	}
+
+	/**
+	 * Permutes the variable bits of a world or mask into the leaf layout.
+	 */
+	private long toLeaf(long bits) {
+		long ret = 0;
+		for (; bits != 0; bits &= bits - 1) {
+			ret |= 1L << position[Long.numberOfTrailingZeros(bits)];
+		}
+		return ret;
+	}
+
+	public int get(long world) {
+		return nodeMin(leaves + (int) toLeaf(world));
+	}
+
+	public void set(long world, int rank) {
+		int leaf = leaves + (int) toLeaf(world);
+		pushDown(leaf);
+		min[leaf] = rank;
+		pullUp(leaf);
+	}
+
+	/**
+	 * The true minimum of the subtree of v.
+	 */
+	private int nodeMin(int v) {
+		int ret = min[v];
+		for (v >>= 1; v >= 1; v >>= 1) {
+			ret = plus(ret, lazy[v]);
+		}
+		return ret;
+	}
+
+	private void apply(int v, int n) {
+		min[v] = plus(min[v], n);
+		if (v < leaves) {
+			lazy[v] = plus(lazy[v], n);
+		}
+	}
+
+	/**
+	 * Passes the pending shifts of all ancestors of v on to their children.
+	 */
+	private void pushDown(int v) {
+		for (int k = 31 - Integer.numberOfLeadingZeros(v); k > 0; k--) {
+			int u = v >>> k;
+			if (lazy[u] != 0) {
+				apply(2 * u, lazy[u]);
+				apply(2 * u + 1, lazy[u]);
+				lazy[u] = 0;
+			}
+		}
+	}
+
+	private void pullUp(int v) {
+		for (v >>= 1; v >= 1; v >>= 1) {
+			min[v] = plus(Math.min(min[2 * v], min[2 * v + 1]), lazy[v]);
+		}
+	}
+
+	private interface BlockVisitor {
+		void visit(int node, int height);
+	}
+
+	/**
+	 * Visits the nodes of the aligned blocks that make up c, with the height of the blocks.
+	 */
+	private void blocks(Cube c, BlockVisitor visitor) {
+		long value = toLeaf(c.value);
+		long free = (leaves - 1) & ~toLeaf(c.care);
+		// the low free bits span a block, the other free bits enumerate the blocks
+		int t = Long.numberOfTrailingZeros(~free);
+		long high = free & ~((1L << t) - 1);
+
+		long s = 0;
+		do {
+			visitor.visit((int) ((leaves + (value | s)) >>> t), t);
+			s = (s - high) & high;
+		} while (s != 0);
+	}
+
+	public int min(Cube c, long threshold) {
+		if (c.isEmpty()) {
+			return INFINITY;
+		}
+		int[] ret = {INFINITY};
+		blocks(c, (node, height) -> ret[0] = Math.min(ret[0], nodeMin(node)));
+		return ret[0];
+	}
+
+	public void shift(Cube c, int n, long threshold) {
+		if (c.isEmpty()) {
+			return;
+		}
+		blocks(c, (node, height) -> {
+			apply(node, n);
+			pullUp(node);
+		});
+	}
+
+	public void fill(Cube c, int rank, long threshold) {
+		if (c.isEmpty()) {
+			return;
+		}
+		blocks(c, (node, height) -> {
+			pushDown(node);
+			for (int k=0; k<=height; k++) {
+				Arrays.fill(min, node << k, (node + 1) << k, rank);
+				if (k < height) {
+					Arrays.fill(lazy, node << k, (node + 1) << k, 0);
+				}
+			}
+			pullUp(node);
+		});
+	}
+
+	/**
+	 * Lays the variables out by how often the cubes fix them, the most frequent in the highest bits.
+	 */
+	public void prepare(Collection<Cube> cubes) {
+		int[] fixed = new int[vars];
+		for (Cube c : cubes) {
+			for (long care = c.care; care != 0; care &= care - 1) {
+				int v = Long.numberOfTrailingZeros(care);
+				if (v < vars) {
+					fixed[v]++;
+				}
+			}
+		}
+
+		Integer[] order = new Integer[vars];
+		for (int v=0; v<vars; v++) {
+			order[v] = v;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(fixed[a], fixed[b]));
+
+		int[] layout = new int[vars];
+		for (int p=0; p<vars; p++) {
+			layout[order[p]] = p;
+		}
+		if (!Arrays.equals(layout, position)) {
+			int[] ranks = flush();
+			position = layout;
+			build(ranks, ranks.length);
+		}
+	}
+
+	/**
+	 * Passes all pending shifts down to the leaves and returns the ranks by world.
+	 */
+	private int[] flush() {
+		for (int u=1; u<leaves; u++) {
+			if (lazy[u] != 0) {
+				apply(2 * u, lazy[u]);
+				apply(2 * u + 1, lazy[u]);
+				lazy[u] = 0;
+			}
+		}
+		int[] ret = new int[leaves];
+		for (int w=0; w<leaves; w++) {
+			ret[w] = min[leaves + (int) toLeaf(w)];
+		}
+		return ret;
+	}
+
+	/**
+	 * Fills the tree with the given ranks by world, repeated over the worlds that extend them.
+	 */
+	private void build(int[] ranks, int n) {
+		for (int w=0; w<leaves; w++) {
+			min[leaves + (int) toLeaf(w)] = ranks[w & (n - 1)];
+		}
+		Arrays.fill(lazy, 0);
+		for (int u=leaves-1; u>=1; u--) {
+			min[u] = Math.min(min[2 * u], min[2 * u + 1]);
+		}
+	}
+
+	public Ranking widen(int extra) {
+		SegmentTreeRanking ret = new SegmentTreeRanking(vars + extra);
+		System.arraycopy(position, 0, ret.position, 0, vars);
+		ret.build(copyRanks(), leaves);
+		return ret;
+	}
+
+	public Ranking copy() {
+		SegmentTreeRanking ret = new SegmentTreeRanking(vars);
+		ret.position = position.clone();
+		ret.min = min.clone();
+		ret.lazy = lazy.clone();
+		return ret;
+	}
+
+	private int[] copyRanks() {
+		return ((SegmentTreeRanking) copy()).flush();
+	}
+}
@@ -0,0 +1,206 @@
+package theory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import logic.VariableRegistry;
+
+/**
+ * Binary snapshots of a theory, so that it can be restored without running the fixpoint again.
+ *
+ * A snapshot holds, little-endian:
+ * - the magic number and the format version,
+ * - the vocabulary: the number of variables and their names in order of declaration,
+ * - the conditionals: their number, and for each its text and compiled cubes,
+ * - padding to a multiple of 8 bytes, then the ranks as ints in world order,
+ * - the CRC32 of everything before it, as a long.
+ *
+ * Snapshots are written sequentially and restored by memory-mapping the ranks as a copy-on-write
+ * MappedRanking. Files with a wrong checksum are rejected, and so are files whose conditionals
+ * no longer compile to the stored cubes.
+ */
+public class Snapshot {
+	static final int MAGIC = 0x534A4C5A;
+	static final int VERSION = 1;
+	// bytes per buffer when writing and per mapping when checksumming
+	static final int CHUNK = 1 << 20;
+
+	/**
+	 * Writes the theory to file, replacing it atomically.
+	 */
+	public static void write(Theory theory, File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		synchronized (theory) {
+			try (FileOutputStream out = new FileOutputStream(tmp)) {
+				write(theory, out.getChannel());
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void write(Theory theory, FileChannel channel) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buf = ByteBuffer.allocate(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+		long written = 0;
+
+		buf.putInt(MAGIC).putInt(VERSION);
+		buf.putInt(theory.vars.size());
+		for (String name : theory.vars.names()) {
+			written += put(channel, buf, crc, name.getBytes(StandardCharsets.UTF_8));
+		}
+		written += ensure(channel, buf, crc, 4);
+		buf.putInt(theory.conditionals.size());
+		for (Conditional c : theory.conditionals) {
+			written += put(channel, buf, crc, c.toString().getBytes(StandardCharsets.UTF_8));
+			written += ensure(channel, buf, crc, 64);
+			putCube(buf, c.antecedent);
+			putCube(buf, c.positive);
+			putCube(buf, c.exception);
+			buf.put((byte) (c.strict ? 1 : 0));
+		}
+		written += ensure(channel, buf, crc, 7);
+		while ((written + buf.position()) % 8 != 0) {
+			buf.put((byte) 0);
+		}
+
+		Ranking ranks = theory.ranks;
+		for (long w=0; w<ranks.size(); w++) {
+			written += ensure(channel, buf, crc, 4);
+			buf.putInt(ranks.get(w));
+		}
+		flush(channel, buf, crc);
+
+		buf.putLong(crc.getValue());
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+
+	/**
+	 * Appends a length-prefixed byte string, flushing as needed; returns the bytes flushed.
+	 */
+	private static long put(FileChannel channel, ByteBuffer buf, CRC32 crc, byte[] bytes) throws IOException {
+		long ret = ensure(channel, buf, crc, 4);
+		buf.putInt(bytes.length);
+		for (int i=0; i<bytes.length; ) {
+			ret += ensure(channel, buf, crc, 1);
+			int n = Math.min(buf.remaining(), bytes.length - i);
+			buf.put(bytes, i, n);
+			i += n;
+		}
+		return ret;
+	}
+
+	private static void putCube(ByteBuffer buf, Cube c) {
+		buf.putLong(c.care).putLong(c.value).put((byte) (c.empty ? 1 : 0));
+	}
+
+	/**
+	 * Flushes the buffer if it has less than n bytes left; returns the bytes flushed.
+	 */
+	private static long ensure(FileChannel channel, ByteBuffer buf, CRC32 crc, int n) throws IOException {
+		return (buf.remaining() < n ? flush(channel, buf, crc) : 0);
+	}
+
+	private static long flush(FileChannel channel, ByteBuffer buf, CRC32 crc) throws IOException {
+		buf.flip();
+		long ret = buf.remaining();
+		crc.update(buf.array(), 0, buf.limit());
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+		return ret;
+	}
+
+	/**
+	 * Restores a theory from file. The ranks are mapped, not read: changes to the restored theory
+	 * stay in memory, and its copies and widened rankings are created next to the snapshot.
+	 */
+	public static Theory read(File file) throws IOException {
+		long size;
+		MappedByteBuffer header;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			size = channel.size();
+			if (size < 24) {
+				throw new IOException("not a ranking snapshot: " + file);
+			}
+			header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("not a ranking snapshot: " + file);
+			}
+			if (header.getInt() != VERSION) {
+				throw new IOException("unsupported snapshot version in " + file);
+			}
+			if (checksum(channel, size - 8) != channel.map(FileChannel.MapMode.READ_ONLY, size - 8, 8).order(ByteOrder.LITTLE_ENDIAN).getLong()) {
+				throw new IOException("corrupt snapshot, the checksum does not match: " + file);
+			}
+		}
+
+		VariableRegistry vars = new VariableRegistry();
+		int n = header.getInt();
+		for (int i=0; i<n; i++) {
+			vars.intern(getString(header));
+		}
+
+		List<Conditional> conditionals = new ArrayList<Conditional>();
+		int m = header.getInt();
+		for (int i=0; i<m; i++) {
+			String text = getString(header);
+			Conditional c;
+			try {
+				c = new Conditional(text, vars);
+			} catch (Exception e) {
+				throw new IOException("stale snapshot, \"" + text + "\" does not compile: " + e.getMessage(), e);
+			}
+			if (!isCube(header, c.antecedent) || !isCube(header, c.positive) || !isCube(header, c.exception) || (header.get() != 0) != c.strict) {
+				throw new IOException("stale snapshot, \"" + text + "\" compiles differently: " + file);
+			}
+			conditionals.add(c);
+		}
+
+		long offset = (header.position() + 7) & ~7L;
+		if (offset + 4 * (1L << n) + 8 != size) {
+			throw new IOException("corrupt snapshot, the ranking does not fit the vocabulary: " + file);
+		}
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		return new Theory(vars, conditionals, new MappedRanking(dir, file, offset, n));
+	}
+
+	private static String getString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static boolean isCube(ByteBuffer buf, Cube c) {
+		return buf.getLong() == c.care && buf.getLong() == c.value && (buf.get() != 0) == c.empty;
+	}
+
+	/**
+	 * The CRC32 of the first length bytes of the file, checksummed through mappings of CHUNK bytes.
+	 */
+	private static long checksum(FileChannel channel, long length) throws IOException {
+		CRC32 crc = new CRC32();
+		for (long pos=0; pos<length; pos+=CHUNK) {
+			crc.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(CHUNK, length - pos)));
+		}
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,157 @@
+package theory;
+
+import java.util.Arrays;
+
+/**
+ * Ranking that only stores the worlds with a non-zero rank, in an open-addressing hash table
+ * from world to rank. Memory is proportional to the shifted part of the world space rather than to 2^n.
+ *
+ * The minimal rank of a cube is 0 as soon as one of its members is not stored, so a cube with
+ * more members than there are stored worlds has rank 0; the members of other cubes are looked
+ * up one by one. The table is not thread-safe, so shifts and fills always run sequentially.
+ */
+public class SparseRanking extends Ranking {
+	private static final long EMPTY = -1;
+
+	long[] keys;
+	int[] values;
+	int count = 0;
+
+	public SparseRanking(int vars) {
+		if (vars > 62) {
+			throw new IllegalArgumentException("too many variables for a sparse ranking: " + vars);
+		}
+		this.vars = vars;
+		allocate(16);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		count = 0;
+	}
+
+	/**
+	 * The number of worlds with a non-zero rank.
+	 */
+	public int stored() {
+		return count;
+	}
+
+	private int slot(long world) {
+		return (int) ((world * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(keys.length)));
+	}
+
+	public int get(long world) {
+		for (int i = slot(world); keys[i] != EMPTY; i = (i + 1) & (keys.length - 1)) {
+			if (keys[i] == world) {
+				return values[i];
+			}
+		}
+		return 0;
+	}
+
+	public void set(long world, int rank) {
+		int i = slot(world);
+		for (; keys[i] != EMPTY; i = (i + 1) & (keys.length - 1)) {
+			if (keys[i] == world) {
+				if (rank == 0) {
+					remove(i);
+				}
+				else {
+					values[i] = rank;
+				}
+				return;
+			}
+		}
+		if (rank == 0) {
+			return;
+		}
+
+		keys[i] = world;
+		values[i] = rank;
+		if (++count * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	/**
+	 * Empties slot i and moves later entries of its probe sequence back, so lookups need no tombstones.
+	 */
+	private void remove(int i) {
+		int mask = keys.length - 1;
+		keys[i] = EMPTY;
+		count--;
+
+		for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+			int home = slot(keys[j]);
+			// move the entry at j back to i unless its home lies cyclically in (i, j]
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				keys[j] = EMPTY;
+				i = j;
+			}
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for (int i=0; i<oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				set(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	public int min(Cube c, long threshold) {
+		if (c.isEmpty()) {
+			return INFINITY;
+		}
+		long free = c.free(vars);
+		long members = 1L << Long.bitCount(free);
+		if (members > count) {
+			return 0;
+		}
+		// the table is at most half full, so there are fewer members than slots and
+		// looking them up is cheaper than walking the table
+		int min = INFINITY;
+		long s = 0;
+		for (long i=0; i<members && min > 0; i++) {
+			min = Math.min(min, get(c.value | s));
+			s = (s - free) & free;
+		}
+		return min;
+	}
+
+	public void shift(Cube c, int n, long threshold) {
+		super.shift(c, n, Long.MAX_VALUE);
+	}
+
+	public void fill(Cube c, int rank, long threshold) {
+		super.fill(c, rank, Long.MAX_VALUE);
+	}
+
+	public Ranking widen(int extra) {
+		SparseRanking ret = new SparseRanking(vars + extra);
+		for (int i=0; i<keys.length; i++) {
+			if (keys[i] != EMPTY) {
+				for (long x=0; x < (1L << extra); x++) {
+					ret.set(keys[i] | (x << vars), values[i]);
+				}
+			}
+		}
+		return ret;
+	}
+
+	public Ranking copy() {
+		SparseRanking ret = new SparseRanking(vars);
+		ret.keys = keys.clone();
+		ret.values = values.clone();
+		ret.count = count;
+		return ret;
+	}
+}
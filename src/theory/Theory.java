@@ -1,253 +1,469 @@
 package theory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
+
+import logic.VariableRegistry;
 
 
 public class Theory {
-	Set<Conditional> conditionals;
-	static LinkedList<String> vars;
-	LinkedHashMap<String, Integer> rankMap = null;
+	List<Conditional> conditionals;
+	VariableRegistry vars;
+	Ranking ranks;
 	public boolean SORT = true;
+	// regression mode: check every one-shot shift against the original unit-step shifting
+	public boolean VERIFY_SHIFT = false;
+	// parallel mode: world scans over more than PARALLEL_THRESHOLD worlds are split into fork-join tasks
+	public boolean PARALLEL = false;
+	public long PARALLEL_THRESHOLD = 1 << 16;
+	
+	// bumped on every change of the ranking, invalidates the query cache
+	long epoch = 0;
+	QueryCache cache = new QueryCache(1024);
 	
 	public Theory() {
-		conditionals = new HashSet<Conditional>();
-		vars = new LinkedList<String>();
+		this(new ArrayRanking(0));
 	}
 	
-	private void reinitRankMap() {
-		rankMap = new LinkedHashMap<String, Integer>();
-		
-		for (int i=0; i<(int) Math.pow(2,vars.size()); i++) {
-			rankMap.put(String.format("%"+vars.size()+"s", Integer.toBinaryString(i)).replace(' ', '0'), 0);
+	/**
+	 * A theory whose ranking is stored in the given backend, which must be over the empty vocabulary.
+	 */
+	public Theory(Ranking ranking) {
+		if (ranking.vars() != 0) {
+			throw new IllegalArgumentException("the ranking of a new theory must be over the empty vocabulary");
 		}
+		conditionals = new ArrayList<Conditional>();
+		vars = new VariableRegistry();
+		ranks = ranking;
 	}
 	
-	public void addVars(String prop) {
+	/**
+	 * A theory restored from its parts, as read by Snapshot; the ranking must satisfy the conditionals.
+	 */
+	Theory(VariableRegistry vars, List<Conditional> conditionals, Ranking ranking) {
+		this.conditionals = new ArrayList<Conditional>();
+		this.vars = vars;
+		this.ranks = ranking;
+		for (Conditional c : conditionals) {
+			link(c);
+			this.conditionals.add(c);
+		}
+	}
+	
+	/**
+	 * Extends the vocabulary. The existing ranking is widened in place: every world splits into
+	 * its extensions over the new variables, which all keep its rank. This preserves the minimal
+	 * rank of every cube, so the conditionals stay satisfied and cached query results stay valid.
+	 */
+	public synchronized void addVars(String prop) {
+		// widen first, so a backend that cannot hold the new variables
+		// leaves both the registry and the ranking as they were
+		Set<String> added = new LinkedHashSet<String>();
 		for (String p : prop.split(" ")) {
-			vars.add(p);
+			if (vars.id(p) == VariableRegistry.UNDECLARED) {
+				added.add(p);
+			}
+		}
+		if (added.isEmpty()) {
+			return;
 		}
 		
-		reinitRankMap();
+		Ranking widened = ranks.widen(added.size());
+		for (String p : added) {
+			vars.intern(p);
+		}
+		ranks = widened;
 	}
 	
-	public void addCond(String conds) throws Exception {
+	public synchronized void addCond(String conds) throws Exception {
+		epoch++;
 		for (String cond : conds.split(",")) {
-			Conditional c = new Conditional(cond.trim());
+			Conditional c = new Conditional(cond.trim(), vars);
+			link(c);
 			conditionals.add(c);
 			
-			shiftRanking(c);
+			checkConditionals(Collections.singletonList(c), new LoadReport());
+		}
+		
+	}
+	
+	/**
+	 * Adds all conditionals: they are parsed and compiled in parallel, then added one at a time
+	 * in input order exactly like addCond(), so the ranking is the same. The ranking depends on
+	 * the order in which unsatisfied conditionals are shifted, so a single fixpoint over the
+	 * whole batch would not be.
+	 */
+	public synchronized LoadReport addConds(Collection<String> conds) throws Exception {
+		epoch++;
+		LoadReport report = new LoadReport();
+		
+		long start = System.nanoTime();
+		final String[] strs = conds.toArray(new String[conds.size()]);
+		final Conditional[] parsed = new Conditional[strs.length];
+		final Exception[] errors = new Exception[strs.length];
+		
+		IntStream.range(0, strs.length).parallel().forEach(i -> {
+			try {
+				parsed[i] = new Conditional(strs[i].trim(), vars);
+			} catch (Exception e) {
+				errors[i] = e;
+			}
+		});
+		for (Exception e : errors) {
+			if (e != null) {
+				throw e;
+			}
+		}
+		report.conditionals = parsed.length;
+		report.parseNanos = System.nanoTime() - start;
+		
+		List<Cube> cubes = new ArrayList<Cube>();
+		for (Conditional c : conditionals) {
+			cubes.add(c.positive);
+			cubes.add(c.exception);
+		}
+		for (Conditional c : parsed) {
+			cubes.add(c.positive);
+			cubes.add(c.exception);
+		}
+		ranks.prepare(cubes);
+		
+		for (Conditional c : parsed) {
+			start = System.nanoTime();
+			link(c);
+			conditionals.add(c);
+			report.linkNanos += System.nanoTime() - start;
 			
-			checkAllConditionals();
+			start = System.nanoTime();
+			checkConditionals(Collections.singletonList(c), report);
+			report.fixpointNanos += System.nanoTime() - start;
 		}
 		
+		return report;
 	}
 	
-	public boolean query(String cond) throws Exception {
+	public synchronized boolean query(String cond) throws Exception {
 				
-		Conditional c = new Conditional(cond);
+		Conditional c = new Conditional(cond, vars);
+		Boolean cached = cache.get(c, epoch);
+		if (cached != null) {
+			return cached;
+		}
+		
 		boolean sat = satisfied(c);
+		cache.put(c, epoch, sat);
 				
 		return sat;		
 	}
 	
-	private void shiftRanking(Conditional c) {		
-		// shift the exception worlds until the constraint is satisfied
-		while (!satisfied(c)) {
-			shiftOne(c);
+	/**
+	 * Evaluates all queries in one pass over the ranking; the results are in input order.
+	 */
+	public synchronized List<Boolean> queryAll(Collection<String> conds) throws Exception {
+		List<Boolean> ret = new ArrayList<Boolean>(conds.size());
+		List<Conditional> misses = new ArrayList<Conditional>();
+		
+		for (String cond : conds) {
+			Conditional c = new Conditional(cond, vars);
+			Boolean cached = cache.get(c, epoch);
+			if (cached == null) {
+				misses.add(c);
+			}
+			ret.add(cached);
 		}
-	}
-	
-	private void checkAllConditionals() {
-		// check whether the other constraints are still satisfied
-		boolean allSatisfied = false;
 		
-		while (!allSatisfied) {
-			allSatisfied = true;
-			for (Conditional c1 : conditionals) {
-				if (!satisfied(c1)) {
-					allSatisfied = false;
-					shiftRanking(c1);
+		if (!misses.isEmpty()) {
+			List<Boolean> results = new QueryBatch(misses).run(ranks, threshold());
+			
+			int j = 0;
+			for (int i=0; i<ret.size(); i++) {
+				if (ret.get(i) == null) {
+					boolean sat = results.get(j);
+					cache.put(misses.get(j), epoch, sat);
+					ret.set(i, sat);
+					j++;
 				}
 			}
 		}
+		
+		return ret;
 	}
 	
-	private boolean satisfied(Conditional c) {
-		getWorldsOf(c.getPositiveFormula());
-		
-		int minPositiveRanking = ranking(getWorldsOf(c.getPositiveFormula()));
-		int minExceptionRanking = ranking(getWorldsOf(c.getExceptionFormula()));
-		
-		return minPositiveRanking < minExceptionRanking;
+	public QueryCache getQueryCache() {
+		return cache;
 	}
 	
-	private int ranking(LinkedList<String> worlds) {
-		int min = Integer.MAX_VALUE;
+	/**
+	 * Replaces the query cache, e.g. by one with a different capacity; 0 disables caching.
+	 */
+	public synchronized void setQueryCache(QueryCache cache) {
+		this.cache = cache;
+	}
+	
+	private void shiftRanking(Conditional c) throws Exception {
+		Ranking expected = null;
 		
-		for (String w : worlds) {
-			if (rankMap.get(w) < min) {
-				min = rankMap.get(w);
+		if (VERIFY_SHIFT) {
+			Ranking current = ranks;
+			ranks = current.copy();
+			// shift the exception worlds one step at a time until the constraint is satisfied
+			while (!satisfied(c)) {
+				if (ranking(c.positive) == Ranking.INFINITY) {
+					// no number of steps satisfies c, in the limit its exceptions become impossible
+					setWorldsTo(c.exception, Ranking.INFINITY);
+					break;
+				}
+				shiftOne(c);
 			}
+			expected = ranks;
+			ranks = current;
 		}
 		
-		return min;
+		try {
+			shiftAtOnce(c);
+			
+			if (expected != null && !expected.sameRanks(ranks)) {
+				throw new Exception("shifting \"" + c + "\" at once differs from shifting it step by step");
+			}
+		} finally {
+			if (expected != null) {
+				expected.release();
+			}
+		}
 	}
 	
-	private void shiftOne(Conditional c) {
+	private void shiftAtOnce(Conditional c) {
+		refresh(c);
+		int minPositiveRanking = c.minPositive;
+		int minExceptionRanking = c.minException;
 		
-		if (c.getPositiveFormula() == "false") {
-			setWorldsTo(c.getExceptionFormula(), Integer.MAX_VALUE);
+		if (minPositiveRanking < minExceptionRanking) {
+			return;
 		}
 		
-		else {	
-			shiftWorldsOf(c.getExceptionFormula(), 1);
+		if (c.strict || minPositiveRanking == Ranking.INFINITY) {
+			setWorldsTo(c.exception, Ranking.INFINITY);
+			shifted(c, true, Ranking.INFINITY);
+		}
+		else {
+			// the positive and exception worlds are disjoint, so this single shift
+			// has the same effect as shifting one step at a time until satisfied
+			int n = minPositiveRanking - minExceptionRanking + 1;
+			shiftWorldsOf(c.exception, n);
+			shifted(c, false, n);
 		}
 	}
 	
-	private void shiftWorldsOf(String form, int n) {
-		for (String b : getWorldsOf(form)) {
-			rankMap.put(b, rankMap.get(b)+n);
+	/**
+	 * Updates the cached minima after the exception worlds of c were set to rank n or shifted by n.
+	 * Only c and its dependents have worlds among them.
+	 */
+	private void shifted(Conditional c, boolean fill, int n) {
+		c.shifted(c.exception, fill, n);
+		for (Conditional d : c.dependents) {
+			d.shifted(c.exception, fill, n);
 		}
 	}
 	
-	private void setWorldsTo(String form, int n) {
-		for (String b : getWorldsOf(form)) {
-			rankMap.put(b, n);
+	/**
+	 * Recomputes the cached minima of c if a shift left them unknown.
+	 */
+	private void refresh(Conditional c) {
+		if (c.dirty) {
+			c.minPositive = ranking(c.positive);
+			c.minException = ranking(c.exception);
+			c.dirty = false;
 		}
 	}
 	
-	LinkedList<String> getWorldsOf(String form) {
-		LinkedList<String> ret = new LinkedList<String>();
-		
-		LinkedHashMap<Integer, Integer> binaryValueMap;
-		try {
-			binaryValueMap = getBinaryValueMap(form);
-		} catch (Exception e) {
-			// we have a contradiction, return empty set of worlds
-			//e.printStackTrace();
-			return ret;
-		}
-				
-		for (String b : rankMap.keySet()) {
-			if (satisfiesConstraints(b, binaryValueMap)) {
-				ret.add(b);
+	/**
+	 * Adds the dependency edges between c and the conditionals already in the theory.
+	 */
+	private void link(Conditional c) {
+		for (Conditional d : conditionals) {
+			if (c.affects(d)) {
+				c.dependents.add(d);
+			}
+			if (d.affects(c)) {
+				d.dependents.add(c);
 			}
 		}
-		
-		return ret;
 	}
 	
-	private LinkedHashMap<Integer, Integer> getBinaryValueMap(String form) throws Exception {
-		LinkedHashMap<Integer, Integer> ret = new LinkedHashMap<Integer,Integer>();
-		
-		if (form == "false") {
-			return ret;
+	/**
+	 * Shifts the ranking until all conditionals are satisfied again, starting from the given
+	 * conditionals and rechecking only the dependents of a conditional after it was shifted.
+	 * Conditionals without any possible world are left unsatisfied and counted in the report.
+	 */
+	private void checkConditionals(Collection<Conditional> start, LoadReport report) throws Exception {
+		ArrayDeque<Conditional> worklist = new ArrayDeque<Conditional>();
+		for (Conditional c : start) {
+			enqueue(worklist, c);
 		}
 		
-		for (String atom : form.split("and")) {
-			atom = atom.trim();
-			boolean negated = atom.startsWith("-");
-			int value = (negated ? 0 : 1);
-			String var = (negated ? atom.substring(1, atom.length()) : atom);
-			int index = indexOf(var);
-			
-			Integer currentValue = ret.get(index);
+		while (!worklist.isEmpty()) {
+			Conditional c = worklist.poll();
+			c.queued = false;
+			report.checks++;
 			
-			// look if we have a contradiction, if so, throw an exception
-			if ((currentValue != null) && (Math.abs(ret.get(index)-value)==1)) {
-				throw new Exception("not adding "+var+": input value ("+value+") contradicts with existing value ("+ret.get(index)+")");
-			}
-			else {
-				ret.put(indexOf(var), value);
+			refresh(c);
+			if (c.minPositive >= c.minException) {
+				if (c.minException == Ranking.INFINITY) {
+					// positive and exception worlds are both impossible: no shift changes
+					// anything, so the dependents need no recheck
+					report.unsatisfiable++;
+					continue;
+				}
+				shiftRanking(c);
+				report.shifts++;
+				
+				for (Conditional d : c.dependents) {
+					enqueue(worklist, d);
+				}
 			}
 		}
-		
-		return ret;
 	}
 	
-	private int indexOf(String var) {
-		for (int i=0; i<vars.size(); i++) {
-			if (vars.get(i).equals(var)) {
-				return i;
-			}
+	private void enqueue(ArrayDeque<Conditional> worklist, Conditional c) {
+		if (!c.queued) {
+			c.queued = true;
+			worklist.add(c);
 		}
+	}
+	
+	private boolean satisfied(Conditional c) {
+		int minPositiveRanking = ranking(c.positive);
+		int minExceptionRanking = ranking(c.exception);
 		
-		return -1;
+		return minPositiveRanking < minExceptionRanking;
+	}
+	
+	private long threshold() {
+		return (PARALLEL ? PARALLEL_THRESHOLD : Long.MAX_VALUE);
 	}
 	
-	private boolean satisfiesConstraints(String b, LinkedHashMap<Integer, Integer> binaryValueMap) {
-		boolean ret = true;
+	private int ranking(Cube c) {
+		return ranks.min(c, threshold());
+	}
+	
+	private void shiftOne(Conditional c) {
 		
-		for (Map.Entry<Integer, Integer> entry : binaryValueMap.entrySet()) {
-		    int pos = entry.getKey();
-		    int value = entry.getValue();
-		    
-		    int value2 = Character.getNumericValue(b.charAt(pos));
-		    if (value != value2) {
-		    	ret = false;
-		    }
+		if (c.strict) {
+			setWorldsTo(c.exception, Ranking.INFINITY);
 		}
 		
-		return ret;
+		else {	
+			shiftWorldsOf(c.exception, 1);
+		}
 	}
 	
-	public String rankingToString() {
-		String ret = "";
-		for (String var : vars) {
-			ret +=  var + " ";
-		}
-		ret += "| rank\n";
-		for (int i=0; i<vars.size(); i++) {
-			ret += "-";
-			for (int j=0; j<vars.get(i).length(); j++) {
-				ret += "-";
-			}
+	private void shiftWorldsOf(Cube c, int n) {
+		ranks.shift(c, n, threshold());
+	}
+	
+	private void setWorldsTo(Cube c, int n) {
+		ranks.fill(c, n, threshold());
+	}
+	
+	public synchronized String rankingToString() {
+		StringBuilder ret = new StringBuilder();
+		try {
+			writeRanking(ret);
+		} catch (IOException e) {
+			// a StringBuilder does not throw
+			throw new UncheckedIOException(e);
+		}
+		return ret.toString();
+	}
+	
+	/**
+	 * Writes the table of rankingToString() to out, one world at a time.
+	 */
+	public synchronized void writeRanking(Appendable out) throws IOException {
+		writeRanking(out, 0, Ranking.INFINITY, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Writes the worlds with a rank from min to max (inclusive) to out, in the format of
+	 * rankingToString(), but at most limit of them: the lowest ranked ones if SORT is set,
+	 * the first ones in table order otherwise.
+	 *
+	 * The worlds are streamed from the ranking. Sorting keeps only the limit lowest worlds
+	 * seen so far in a bounded heap, so paging through a large ranking stays cheap. A sorted
+	 * dump of more than 2^22 worlds fails with an IllegalStateException;
+	 * page through such rankings with a smaller limit or a rank range, or set SORT to false.
+	 */
+	public synchronized void writeRanking(Appendable out, int min, int max, long limit) throws IOException {
+		int n = vars.size();
+		String[] pads = new String[n];
+		for (int i=0; i<n; i++) {
+			pads[i] = String.join("", Collections.nCopies(vars.name(i).length(), " "));
 		}
-		ret += "------\n";
-		
-		if (SORT) sortRanking();
 		
-		for (Map.Entry<String, Integer> entry : rankMap.entrySet()) {
-			String key = entry.getKey();
-			for (int i=0; i<key.length(); i++) {
-				ret += key.charAt(i);
-				
-				for (int j=0; j<vars.get(i).length(); j++) {
-					ret += " ";
+		long size = ranks.size();
+		if (SORT) {
+			// sort on (rank, row), which keeps the table order among worlds of equal rank;
+			// this fails before anything is written if too many worlds are to be sorted
+			BoundedHeap lowest = new BoundedHeap(limit);
+			for (long r=0; r<size; r++) {
+				int rank = ranks.get(world(r));
+				if (rank >= min && rank <= max) {
+					lowest.offer(rank, r);
+				}
+			}
+			lowest.sort();
+			
+			writeHeader(out, pads);
+			for (int i=0; i<lowest.count; i++) {
+				writeRow(out, world(lowest.rows[i]), lowest.ranks[i], pads);
+			}
+		}
+		else {
+			writeHeader(out, pads);
+			long written = 0;
+			for (long r=0; r<size && written<limit; r++) {
+				long w = world(r);
+				int rank = ranks.get(w);
+				if (rank >= min && rank <= max) {
+					writeRow(out, w, rank, pads);
+					written++;
 				}
 			}
-			int val = entry.getValue();
-			ret += "| " + (val==Integer.MAX_VALUE?"infinity":val) + "\n";
 		}
-		
-		return ret;		
 	}
 	
-	private void sortRanking() {
-		List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(rankMap.entrySet());
-		Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
-			public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
-				return a.getValue().compareTo(b.getValue());
-			}
-		});
-		
-		LinkedHashMap<String, Integer> sortedMap = new LinkedHashMap<String, Integer>();
-		for (Map.Entry<String, Integer> entry : entries) {
-			sortedMap.put(entry.getKey(), entry.getValue());
+	private void writeHeader(Appendable out, String[] pads) throws IOException {
+		String line = "";
+		for (int i=0; i<pads.length; i++) {
+			out.append(vars.name(i)).append(' ');
+			line += "-" + pads[i].replace(' ', '-');
 		}
-		
-		rankMap = sortedMap;
+		out.append("| rank\n").append(line).append("------\n");
 	}
-			
-	public String toString() {
+	
+	private void writeRow(Appendable out, long w, int rank, String[] pads) throws IOException {
+		for (int i=0; i<pads.length; i++) {
+			out.append(((w >>> i) & 1) != 0 ? '1' : '0').append(pads[i]);
+		}
+		out.append("| ").append(rank==Ranking.INFINITY?"infinity":Integer.toString(rank)).append('\n');
+	}
+	
+	/**
+	 * The world in row r of the table, whose first variable is the most significant column.
+	 */
+	private long world(long r) {
+		int n = vars.size();
+		return (n == 0 ? 0 : Long.reverse(r) >>> (64 - n));
+	}
+	
+	public synchronized String toString() {
 		return "--- propositions:\n"
 				+ vars + "\n\n"
 				+ "--- conditionals:\n"
@@ -0,0 +1,80 @@
+package theory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Named, independent theories served from a shared thread pool.
+ *
+ * Theories share no mutable state, so work on different theories runs in parallel;
+ * work on the same theory is serialized by the theory's own lock.
+ */
+public class TheoryRegistry {
+	public interface Task<T> {
+		T run(Theory theory) throws Exception;
+	}
+
+	private final ConcurrentHashMap<String, Theory> theories = new ConcurrentHashMap<String, Theory>();
+	private final ExecutorService executor;
+
+	public TheoryRegistry() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public TheoryRegistry(int threads) {
+		executor = Executors.newFixedThreadPool(threads);
+	}
+
+	public Theory create(String name) throws Exception {
+		Theory t = new Theory();
+		if (theories.putIfAbsent(name, t) != null) {
+			throw new Exception("theory \"" + name + "\" already exists");
+		}
+		return t;
+	}
+
+	public Theory get(String name) throws Exception {
+		Theory t = theories.get(name);
+		if (t == null) {
+			throw new Exception("no theory named \"" + name + "\"");
+		}
+		return t;
+	}
+
+	public Theory remove(String name) {
+		return theories.remove(name);
+	}
+
+	public Set<String> names() {
+		return theories.keySet();
+	}
+
+	/**
+	 * Runs the task on the named theory in the pool, holding the theory's lock.
+	 */
+	public <T> Future<T> submit(String name, Task<T> task) throws Exception {
+		Theory t = get(name);
+		return executor.submit(() -> {
+			synchronized (t) {
+				return task.run(t);
+			}
+		});
+	}
+
+	public Future<Boolean> query(String name, String cond) throws Exception {
+		return submit(name, t -> t.query(cond));
+	}
+
+	public Future<List<Boolean>> queryAll(String name, Collection<String> conds) throws Exception {
+		return submit(name, t -> t.queryAll(conds));
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+}